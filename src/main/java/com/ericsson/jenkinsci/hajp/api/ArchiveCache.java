@@ -0,0 +1,178 @@
+package com.ericsson.jenkinsci.hajp.api;
+
+import com.ericsson.jenkinsci.hajp.api.files.BuildManifest;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded on-disk cache of the archives of completed builds, evicting the least recently used
+ * archives once their total size exceeds the maximum. Archives are keyed by job, build
+ * directory name and a fingerprint of the build files, so a build changed since it was
+ * cached, e.g. by a log replication, is never served stale. The access times are kept as the
+ * modification times of the archives, so the recency order survives a restart.
+ */
+@Log4j2 public class ArchiveCache {
+    public static final String ARCHIVE_SUFFIX = ".zip";
+    public static final String TMP_PREFIX = ".tmp-";
+
+    @Getter private final Path cacheDir;
+    @Getter private final long maxSize;
+
+    /* Sizes of the cached archives by file name, in access order */
+    private final LinkedHashMap<String, Long> archives = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalSize;
+
+    /**
+     * Constructor, indexing the archives already in the cache directory.
+     *
+     * @param cacheDir the directory of the cached archives
+     * @param maxSize  the maximum total size of the cached archives in bytes
+     * @throws IOException if failed to create or to list the cache directory
+     */
+    public ArchiveCache(Path cacheDir, long maxSize) throws IOException {
+        this.cacheDir = Files.createDirectories(cacheDir);
+        this.maxSize = maxSize;
+        File[] files = cacheDir.toFile().listFiles();
+        Arrays.sort(files, new Comparator<File>() {
+            @Override public int compare(File f1, File f2) {
+                return Long.compare(f1.lastModified(), f2.lastModified());
+            }
+        });
+        for (File file : files) {
+            if (file.getName().startsWith(TMP_PREFIX)) {
+                Files.deleteIfExists(file.toPath());
+            } else if (file.getName().endsWith(ARCHIVE_SUFFIX)) {
+                archives.put(file.getName(), file.length());
+                totalSize += file.length();
+            }
+        }
+    }
+
+    /**
+     * @param jobName      the job name
+     * @param buildDirName the build directory name
+     * @param fingerprint  the fingerprint of the build files
+     * @return the key of the archive of the build
+     * @see #fingerprint(Path)
+     */
+    public static String key(String jobName, String buildDirName, String fingerprint) {
+        return jobName + "/" + buildDirName + "/" + fingerprint;
+    }
+
+    /**
+     * Fingerprint the files of a build from their paths, sizes and modification times, which
+     * is much cheaper than hashing their content.
+     *
+     * @param buildDir the build directory
+     * @return the fingerprint of the build files
+     * @throws IOException if failed to walk the build directory
+     */
+    public static String fingerprint(final Path buildDir) throws IOException {
+        final MessageDigest digest = DigestUtils.getSha256Digest();
+        Files.walkFileTree(buildDir, new SimpleFileVisitor<Path>() {
+            @Override public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                digest.update((BuildManifest.relativePath(buildDir, file) + "\0" + attrs.size()
+                    + "\0" + attrs.lastModifiedTime().toMillis() + "\n")
+                    .getBytes(StandardCharsets.UTF_8));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    /**
+     * @param key the key of the archive
+     * @return the cached archive, null if not cached
+     * @throws IOException if failed to record the access
+     */
+    public Path get(String key) throws IOException {
+        String fileName = getFileName(key);
+        synchronized (this) {
+            if (archives.get(fileName) == null) {
+                return null;
+            }
+        }
+        Path archive = cacheDir.resolve(fileName);
+        try {
+            Files.setLastModifiedTime(archive, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // evicted meanwhile
+            return null;
+        }
+        return archive;
+    }
+
+    /**
+     * @return a new tmp file in the cache directory, to write an archive to be cached
+     * @throws IOException if failed to create the file
+     */
+    public Path createTmpFile() throws IOException {
+        return Files.createTempFile(cacheDir, TMP_PREFIX, ARCHIVE_SUFFIX);
+    }
+
+    /**
+     * Move an archive into the cache, then evict the least recently used archives until the
+     * total size fits again. An archive bigger than the cache is dropped straight away.
+     *
+     * @param key     the key of the archive
+     * @param tmpFile the archive, as created by {@link #createTmpFile()}
+     * @return the cached archive, null if it was too big to be cached
+     * @throws IOException if failed to move or to evict archives
+     */
+    public Path put(String key, Path tmpFile) throws IOException {
+        String fileName = getFileName(key);
+        long size = Files.size(tmpFile);
+        if (size > maxSize) {
+            Files.deleteIfExists(tmpFile);
+            return null;
+        }
+        Path archive = cacheDir.resolve(fileName);
+        synchronized (this) {
+            Files.move(tmpFile, archive, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+            Long previousSize = archives.put(fileName, size);
+            totalSize += size - (previousSize == null ? 0 : previousSize);
+            Iterator<Map.Entry<String, Long>> eldest = archives.entrySet().iterator();
+            while (totalSize > maxSize && eldest.hasNext()) {
+                Map.Entry<String, Long> entry = eldest.next();
+                if (!entry.getKey().equals(fileName)) {
+                    log.debug("Evicting the archive=" + entry.getKey());
+                    Files.deleteIfExists(cacheDir.resolve(entry.getKey()));
+                    totalSize -= entry.getValue();
+                    eldest.remove();
+                }
+            }
+        }
+        return archive;
+    }
+
+    /**
+     * @return the total size of the cached archives in bytes
+     */
+    public synchronized long getTotalSize() {
+        return totalSize;
+    }
+
+    private static String getFileName(String key) {
+        return DigestUtils.sha256Hex(key) + ARCHIVE_SUFFIX;
+    }
+}
@@ -0,0 +1,20 @@
+package com.ericsson.jenkinsci.hajp.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Source of the artifacts of builds imported without them, e.g. the peer which archived them.
+ * Artifacts are fetched the first time they are accessed, possibly from several threads.
+ */
+public interface ArtifactFetcher {
+
+    /**
+     * @param jobName      the job name
+     * @param buildNumber  the build number
+     * @param relativePath the path of the artifact, relative to the archive directory
+     * @return the input stream the artifact content is read from, which is closed once read
+     * @throws IOException if failed to fetch the artifact
+     */
+    InputStream fetch(String jobName, int buildNumber, String relativePath) throws IOException;
+}
@@ -0,0 +1,19 @@
+package com.ericsson.jenkinsci.hajp.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Receiver of the build archives produced by a batch export, e.g. one stream per build sent to
+ * a standby. Streams may be opened concurrently from several threads.
+ */
+public interface BuildArchiveSink {
+
+    /**
+     * @param buildNumber the build number
+     * @return the output stream the zip archive of the build is written to, which is closed
+     * once the archive is complete
+     * @throws IOException if failed to open the stream
+     */
+    OutputStream open(int buildNumber) throws IOException;
+}
@@ -0,0 +1,148 @@
+package com.ericsson.jenkinsci.hajp.api;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * In memory index of the builds directory of a job, mapping each build number to the name of
+ * its timestamp build directory. The directory names are kept sorted by build number, for range
+ * scans in build number order, so the index stays small even when build numbers are sparse,
+ * e.g. date based. Lookups are done without any I/O nor loading any Run.
+ */
+public class BuildDirIndex {
+
+    private final Path buildsDir;
+    private final TreeMap<Integer, String> buildDirNames = new TreeMap<>();
+
+    /**
+     * Constructor, scanning the builds directory.
+     *
+     * @param buildsDir the builds directory
+     * @throws IOException if failed to scan the builds directory
+     */
+    public BuildDirIndex(Path buildsDir) throws IOException {
+        this.buildsDir = buildsDir;
+        rescan();
+    }
+
+    /**
+     * @return the builds directory
+     */
+    public Path getBuildsDir() {
+        return buildsDir;
+    }
+
+    /**
+     * @param buildNumber the build number
+     * @return true if the build exists, false otherwise
+     */
+    public synchronized boolean contains(int buildNumber) {
+        return buildNumber > 0 && buildDirNames.containsKey(buildNumber);
+    }
+
+    /**
+     * @param buildNumber the build number
+     * @return the name of the timestamp build directory, null if the build does not exist
+     */
+    public synchronized String getBuildDirName(int buildNumber) {
+        return buildDirNames.get(buildNumber);
+    }
+
+    /**
+     * @param fromNumber the first build number, inclusive
+     * @param toNumber   the last build number, inclusive
+     * @return a copy of the build directory names within the range, sorted by build number
+     */
+    public synchronized SortedMap<Integer, String> getBuildDirNames(int fromNumber,
+        int toNumber) {
+        if (fromNumber > toNumber) {
+            return new TreeMap<>();
+        }
+        return new TreeMap<>(buildDirNames.subMap(fromNumber, true, toNumber, true));
+    }
+
+    /**
+     * @param buildNumber  the build number
+     * @param buildDirName the name of the timestamp build directory
+     */
+    public synchronized void put(int buildNumber, String buildDirName) {
+        buildDirNames.put(buildNumber, buildDirName);
+    }
+
+    /**
+     * @param buildNumber the build number
+     */
+    public synchronized void remove(int buildNumber) {
+        buildDirNames.remove(buildNumber);
+    }
+
+    /**
+     * Refresh the entry of a file of the builds directory, ignoring anything which is not a
+     * build number link.
+     *
+     * @param fileName the file name under the builds directory
+     */
+    public void refresh(String fileName) {
+        int buildNumber = parseBuildNumber(fileName);
+        if (buildNumber > 0) {
+            String buildDirName = readBuildDirName(buildsDir.resolve(fileName));
+            if (buildDirName == null) {
+                remove(buildNumber);
+            } else {
+                put(buildNumber, buildDirName);
+            }
+        }
+    }
+
+    /**
+     * Rebuild the index from the content of the builds directory.
+     *
+     * @throws IOException if failed to scan the builds directory
+     */
+    public synchronized void rescan() throws IOException {
+        buildDirNames.clear();
+        DirectoryStream<Path> stream = Files.newDirectoryStream(buildsDir);
+        try {
+            for (Path path : stream) {
+                refresh(path.getFileName().toString());
+            }
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * @param fileName the file name
+     * @return the build number, -1 if the name is not a build number
+     */
+    public static int parseBuildNumber(String fileName) {
+        if (fileName.isEmpty() || fileName.length() > 9) {
+            return -1;
+        }
+        for (int i = 0; i < fileName.length(); i++) {
+            if (!Character.isDigit(fileName.charAt(i))) {
+                return -1;
+            }
+        }
+        return Integer.parseInt(fileName);
+    }
+
+    private static String readBuildDirName(Path buildNumberDir) {
+        try {
+            if (Files.isSymbolicLink(buildNumberDir)) {
+                return Files.readSymbolicLink(buildNumberDir).getFileName().toString();
+            }
+            if (Files.isDirectory(buildNumberDir, LinkOption.NOFOLLOW_LINKS)) {
+                return buildNumberDir.getFileName().toString();
+            }
+        } catch (IOException e) {
+            // the link was removed meanwhile
+        }
+        return null;
+    }
+}
@@ -0,0 +1,163 @@
+package com.ericsson.jenkinsci.hajp.api;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registry of the build directory indexes, kept fresh by a single WatchService watching every
+ * indexed builds directory from a daemon thread.
+ */
+@Log4j2 public class BuildDirWatcher {
+
+    private final ConcurrentMap<Path, BuildDirIndex> indexes = new ConcurrentHashMap<>();
+    /* False when the events are only processed by calls to processEvents, e.g. in tests */
+    private final boolean background;
+    private WatchService watchService;
+
+    /**
+     * Constructor, processing the events from a daemon thread.
+     */
+    public BuildDirWatcher() {
+        this(true);
+    }
+
+    /**
+     * @param background true to process the events from a daemon thread, false to only process
+     *                   them by calling {@link #processEvents(long, TimeUnit)}
+     */
+    BuildDirWatcher(boolean background) {
+        this.background = background;
+    }
+
+    /**
+     * @param buildsDir the builds directory
+     * @return the index of the builds directory, null if it is not indexed yet
+     */
+    public BuildDirIndex getIndex(Path buildsDir) {
+        return indexes.get(buildsDir);
+    }
+
+    /**
+     * Index the builds directory and start watching it, unless it is already indexed.
+     *
+     * @param buildsDir the builds directory
+     * @return the index of the builds directory
+     * @throws IOException if failed to scan or watch the builds directory
+     */
+    public synchronized BuildDirIndex watch(Path buildsDir) throws IOException {
+        BuildDirIndex index = indexes.get(buildsDir);
+        if (index == null) {
+            // register first, so that no change is missed between the scan and the watch
+            buildsDir.register(getWatchService(), StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE);
+            index = new BuildDirIndex(buildsDir);
+            indexes.put(buildsDir, index);
+        }
+        return index;
+    }
+
+    /**
+     * Stop watching and drop all indexes.
+     *
+     * @throws IOException if failed to close the watch service
+     */
+    public synchronized void close() throws IOException {
+        indexes.clear();
+        if (watchService != null) {
+            watchService.close();
+            watchService = null;
+        }
+    }
+
+    /**
+     * Wait for the changes of one watched builds directory and apply them to its index.
+     *
+     * @param timeout how long to wait for a change
+     * @param unit    the unit of the timeout
+     * @return true if changes were applied, false if none came in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean processEvents(long timeout, TimeUnit unit) throws InterruptedException {
+        WatchService service;
+        synchronized (this) {
+            service = watchService;
+        }
+        if (service == null) {
+            return false;
+        }
+        WatchKey key = service.poll(timeout, unit);
+        if (key == null) {
+            return false;
+        }
+        processKey(key);
+        return true;
+    }
+
+    private WatchService getWatchService() throws IOException {
+        if (watchService == null) {
+            final WatchService service = FileSystems.getDefault().newWatchService();
+            if (background) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override public void run() {
+                        processEvents(service);
+                    }
+                }, "hajp-build-dir-watcher");
+                thread.setDaemon(true);
+                thread.start();
+            }
+            watchService = service;
+        }
+        return watchService;
+    }
+
+    private void processEvents(WatchService service) {
+        while (true) {
+            WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            processKey(key);
+        }
+    }
+
+    private void processKey(WatchKey key) {
+        Path buildsDir = (Path) key.watchable();
+        BuildDirIndex index = indexes.get(buildsDir);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (index == null) {
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                rescan(index);
+            } else {
+                index.refresh(event.context().toString());
+            }
+        }
+        if (!key.reset()) {
+            // the builds directory is gone, e.g. the job was deleted or renamed
+            indexes.remove(buildsDir);
+        }
+    }
+
+    private void rescan(BuildDirIndex index) {
+        try {
+            index.rescan();
+        } catch (IOException e) {
+            log.warn("Failed to rescan the builds dir: " + index.getBuildsDir(), e);
+            indexes.remove(index.getBuildsDir());
+        }
+    }
+}
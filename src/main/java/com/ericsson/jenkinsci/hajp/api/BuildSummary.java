@@ -0,0 +1,34 @@
+package com.ericsson.jenkinsci.hajp.api;
+
+import lombok.Getter;
+
+import java.io.Serializable;
+
+/**
+ * Data class identifying a build as read from the builds directory, without loading its Run.
+ */
+public class BuildSummary implements Serializable {
+
+    @Getter private final int number;
+    /* Name of the timestamp build directory */
+    @Getter private final String buildDirName;
+    /* Last modification time in milliseconds of the build directory, build.xml and log */
+    @Getter private final long lastModified;
+    /* Total size in bytes of the files under the build directory */
+    @Getter private final long size;
+
+    /**
+     * Constructor.
+     *
+     * @param number       the build number
+     * @param buildDirName the name of the timestamp build directory
+     * @param lastModified the last modification time in milliseconds
+     * @param size         the total size in bytes
+     */
+    public BuildSummary(int number, String buildDirName, long lastModified, long size) {
+        this.number = number;
+        this.buildDirName = buildDirName;
+        this.lastModified = lastModified;
+        this.size = size;
+    }
+}
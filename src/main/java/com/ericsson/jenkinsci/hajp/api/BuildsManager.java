@@ -1,23 +1,79 @@
 package com.ericsson.jenkinsci.hajp.api;
 
 import com.ericsson.jenkins.hajp.api.Messages;
+import com.ericsson.jenkinsci.hajp.api.files.ArchiveFormat;
+import com.ericsson.jenkinsci.hajp.api.files.BuildManifest;
+import com.ericsson.jenkinsci.hajp.api.files.CapturePolicy;
+import com.ericsson.jenkinsci.hajp.api.files.CompressionPolicy;
+import com.ericsson.jenkinsci.hajp.api.files.DeltaUtil;
+import com.ericsson.jenkinsci.hajp.api.files.FileSignature;
+import com.ericsson.jenkinsci.hajp.api.files.StreamCodec;
+import com.ericsson.jenkinsci.hajp.api.files.TarUtil;
+import com.ericsson.jenkinsci.hajp.api.files.TransferUtil;
+import com.ericsson.jenkinsci.hajp.api.files.XmlUtil;
 import com.ericsson.jenkinsci.hajp.api.files.ZipUtil;
 
+import hudson.Util;
 import hudson.model.AbstractProject;
 import hudson.model.Action;
 import hudson.model.FreeStyleBuild;
 import hudson.model.RunAction;
 import hudson.model.FreeStyleProject;
 import hudson.model.Job;
+import hudson.model.PermalinkProjectAction;
 import hudson.model.Run;
 import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
 import hudson.util.RunList;
+import jenkins.model.ArtifactManager;
 import jenkins.model.PeepholePermalink;
 import jenkins.model.RunAction2;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.w3c.dom.NodeList;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * This class consists of instance methods that will be utilized by HAJP-CORE
@@ -28,7 +84,12 @@ public class BuildsManager {
     public static final String BUILD_TAG = "_b";
     public static final String BUILD_CLASHING = ".clashing";
     public static final String BUILD_TMP = ".tmp";
+    public static final String BUILD_DELTA_REMOVED = ".hajp-removed";
     public static final String BUILDS_DIRNAME = "builds";
+    public static final int LOCK_STRIPES = 64;
+    public static final String BUILD_LOG = "log";
+    public static final String BUILD_XML = "build.xml";
+    public static final String ARTIFACT_MANAGER = "artifactManager";
 
     public static final String LAST_FAILED_BUILD = "lastFailedBuild";
     public static final String LAST_STABLE_BUILD = "lastStableBuild";
@@ -38,6 +99,14 @@ public class BuildsManager {
 
     private JobsManager jobsManager;
     private ZipUtil zipUtil;
+    private TarUtil tarUtil;
+    private DeltaUtil deltaUtil;
+    private BuildDirWatcher buildDirWatcher;
+    private ArchiveCache archiveCache;
+    /* Locks guarding the changes of the builds directories, striped by builds directory */
+    private Lock[] buildsDirLocks;
+    /* Locks letting a single thread zip an archive missing from the cache, striped by key */
+    private Lock[] archiveLocks;
 
     /**
      * Constructor.
@@ -45,132 +114,1080 @@ public class BuildsManager {
      * @param jobsManager the jobsManager
      */
     public BuildsManager(JobsManager jobsManager) {
+        this(jobsManager, new BuildDirWatcher());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param jobsManager     the jobsManager
+     * @param buildDirWatcher the watcher keeping the build directory indexes fresh
+     */
+    BuildsManager(JobsManager jobsManager, BuildDirWatcher buildDirWatcher) {
         this.jobsManager = jobsManager;
         this.zipUtil = new ZipUtil();
+        this.tarUtil = new TarUtil();
+        this.deltaUtil = new DeltaUtil();
+        this.buildDirWatcher = buildDirWatcher;
+        this.buildsDirLocks = new Lock[LOCK_STRIPES];
+        this.archiveLocks = new Lock[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            buildsDirLocks[i] = new ReentrantLock();
+            archiveLocks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Stop watching the builds directories and drop their indexes.
+     *
+     * @throws IOException if failed to stop watching
+     */
+    public void close() throws IOException {
+        buildDirWatcher.close();
+    }
+
+    /**
+     * @param compressionPolicy the policy choosing how the entries of the build archives are
+     *                          compressed
+     */
+    public void setCompressionPolicy(CompressionPolicy compressionPolicy) {
+        zipUtil.setCompressionPolicy(compressionPolicy);
+    }
+
+    /**
+     * @param archiveCache the cache of the archives of the completed builds, or null to always
+     *                     zip the builds when they are grabbed
+     */
+    public void setArchiveCache(ArchiveCache archiveCache) {
+        this.archiveCache = archiveCache;
+    }
+
+    /**
+     * @return the path to builds directory
+     * @throws BuildsManagementException if failed to find the builds directory
+     */
+    public Path getBuildsDir(String jobName) throws BuildsManagementException {
+        Path jobDir = jobsManager.getJobDir(jobName).toPath();
+        Path buildsDir = jobsManager.getJobDir(jobName).toPath().resolve(BUILDS_DIRNAME);
+        if (!Files.exists(jobDir)) {
+            throw new BuildsManagementException(Messages.jobs_job_dir_does_not_exist(jobName),
+                jobName);
+        }
+        try {
+            if (!Files.exists(buildsDir)) {
+                Files.createDirectory(buildsDir);
+            }
+        } catch (IOException e) {
+            throw new BuildsManagementException(Messages.builds_dir_create_error(jobName), jobName);
+        }
+        return buildsDir;
+    }
+
+    /**
+     * @param jobName     the job name
+     * @param buildNumber the build number
+     * @return the path to number build directory
+     * @throws BuildsManagementException if failed to find the build directory
+     */
+    public Path getNumberBuildDir(String jobName, int buildNumber)
+        throws BuildsManagementException {
+        Path buildNumberDir = getBuildsDir(jobName).resolve("" + buildNumber);
+        return buildNumberDir;
+    }
+
+    /**
+     * @param jobName     the job name
+     * @param buildNumber the build number
+     * @return the name of the timestamp build directory
+     * @throws BuildsManagementException if failed to find the build directory
+     */
+    public String getTimestampBuildDirName(String jobName, int buildNumber)
+        throws BuildsManagementException {
+        BuildDirIndex index = findBuildDirIndex(jobName);
+        String buildDirName = index == null ? null : index.getBuildDirName(buildNumber);
+        if (buildDirName != null) {
+            return buildDirName;
+        }
+        Path buildsDir = getBuildsDir(jobName);
+        try {
+            return resolveBuildDir(buildsDir, buildNumber).getFileName().toString();
+        } catch (IOException e) {
+            throw new BuildsManagementException(
+                Messages.builds_build_dir_name_error(jobName, buildNumber), e, jobName,
+                buildNumber);
+        }
+    }
+
+    /**
+     * Grab the build as a zip file.
+     *
+     * @param jobName     the job name
+     * @param buildNumber the build number
+     * @return a zip file as byte array
+     * @throws BuildsManagementException if failed to
+     */
+    public byte[] grabBuild(String jobName, int buildNumber) throws BuildsManagementException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        grabBuild(jobName, buildNumber, os);
+        return os.toByteArray();
+    }
+
+    /**
+     * Grab the build as a zip archive written straight to the output stream. Nothing is
+     * buffered on disk nor in memory, whatever the size of the build, unless an archive cache
+     * is set, in which case a completed build is served from the cache. The stream is left
+     * open.
+     *
+     * @param jobName     the job name
+     * @param buildNumber the build number
+     * @param os          the output stream the zip archive is written to
+     * @throws BuildsManagementException if failed to
+     */
+    public void grabBuild(String jobName, int buildNumber, OutputStream os)
+        throws BuildsManagementException {
+        Path archive = getCachedArchive(jobName, buildNumber);
+        if (archive != null) {
+            try {
+                TransferUtil.copy(archive, os);
+                return;
+            } catch (NoSuchFileException e) {
+                // evicted before it was opened, nothing was written yet
+            } catch (IOException e) {
+                throw new BuildsManagementException(
+                    Messages.builds_build_zip_error(jobName, buildNumber), e, jobName,
+                    buildNumber);
+            }
+        }
+        grabBuild(jobName, buildNumber, CapturePolicy.DEFAULT, os);
+    }
+
+    /**
+     * Grab the files of the build captured by the policy as a zip archive written straight to
+     * the output stream, e.g. {@link CapturePolicy#METADATA_ONLY} to replicate the build
+     * history without the bulky artifacts. Nothing is buffered on disk. The stream is left
+     * open.
+     *
+     * @param jobName     the job name
+     * @param buildNumber the build number
+     * @param policy      the policy selecting the files of the build
+     * @param os          the output stream the zip archive is written to
+     * @throws BuildsManagementException if failed to
+     */
+    public void grabBuild(String jobName, int buildNumber, CapturePolicy policy,
+        OutputStream os) throws BuildsManagementException {
+        grabBuild(jobName, buildNumber, policy, os, 1);
+    }
+
+    /**
+     * Grab the files of the build captured by the policy as a zip archive written to the output
+     * stream, deflating the entries concurrently. Above a parallelism of 1 the entries are
+     * spilled to scatter files in the temporary directory until the archive is stitched, so
+     * this trades disk space for the time to zip a big build. The stream is left open.
+     *
+     * @param jobName     the job name
+     * @param buildNumber the build number
+     * @param policy      the policy selecting the files of the build
+     * @param os          the output stream the zip archive is written to
+     * @param parallelism the maximum number of entries deflated at the same time
+     * @throws BuildsManagementException if failed to
+     * @see ZipUtil#zip(Path, CapturePolicy, OutputStream, int)
+     */
+    public void grabBuild(String jobName, int buildNumber, CapturePolicy policy,
+        OutputStream os, int parallelism) throws BuildsManagementException {
+        Path buildsDir = getBuildsDir(jobName);
+        try {
+            zipUtil.zip(resolveBuildDir(buildsDir, buildNumber), policy, os, parallelism);
+        } catch (Exception e) {
+            throw new BuildsManagementException(
+                Messages.builds_build_zip_error(jobName, buildNumber), e, jobName, buildNumber);
+        }
+    }
+
+    /**
+     * Grab the files of the build captured by the policy as a zip archive compressed as a whole
+     * by the codec, e.g. {@link StreamCodec#XZ} to trade CPU for a smaller transfer. The
+     * stream is left open.
+     *
+     * @param jobName     the job name
+     * @param buildNumber the build number
+     * @param policy      the policy selecting the files of the build
+     * @param codec       the codec compressing the whole archive
+     * @param os          the output stream the compressed archive is written to
+     * @throws BuildsManagementException if failed to
+     * @see #extractBuild(InputStream, StreamCodec, String, int, String)
+     */
+    public void grabBuild(String jobName, int buildNumber, CapturePolicy policy,
+        StreamCodec codec, OutputStream os) throws BuildsManagementException {
+        grabBuild(jobName, buildNumber, ArchiveFormat.ZIP, policy, codec, os);
+    }
+
+    /**
+     * Grab the files of the build captured by the policy as an archive of the format,
+     * compressed as a whole by the codec. A {@link ArchiveFormat#TAR} archive is written in one
+     * pass and keeps the symbolic links, modification times and permissions of the files, so
+     * the receiver may extract it while it is being written. The stream is left open.
+     *
+     * @param jobName     the job name
+     * @param buildNumber the build number
+     * @param format      the archive format
+     * @param policy      the policy selecting the files of the build
+     * @param codec       the codec compressing the whole archive
+     * @param os          the output stream the compressed archive is written to
+     * @throws BuildsManagementException if failed to
+     * @see #extractBuild(InputStream, ArchiveFormat, StreamCodec, String, int, String)
+     */
+    public void grabBuild(String jobName, int buildNumber, ArchiveFormat format,
+        CapturePolicy policy, StreamCodec codec, OutputStream os)
+        throws BuildsManagementException {
+        Path buildsDir = getBuildsDir(jobName);
+        try {
+            Path buildDir = resolveBuildDir(buildsDir, buildNumber);
+            if (format == ArchiveFormat.TAR) {
+                tarUtil.tar(buildDir, policy, codec, os);
+            } else {
+                zipUtil.zip(buildDir, policy, codec, os);
+            }
+        } catch (Exception e) {
+            throw new BuildsManagementException(
+                Messages.builds_build_zip_error(jobName, buildNumber), e, jobName, buildNumber);
+        }
+    }
+
+    /**
+     * Grab the files of the build captured by the policy as a deterministic zip archive, whose
+     * bytes only depend on the content of the files. The stream is left open.
+     *
+     * @param jobName     the job name
+     * @param buildNumber the build number
+     * @param policy      the policy selecting the files of the build
+     * @param os          the output stream the zip archive is written to
+     * @throws BuildsManagementException if failed to
+     * @see ZipUtil#zipDeterministic(Path, CapturePolicy, OutputStream)
+     */
+    public void grabDeterministicBuild(String jobName, int buildNumber, CapturePolicy policy,
+        OutputStream os) throws BuildsManagementException {
+        Path buildsDir = getBuildsDir(jobName);
+        try {
+            zipUtil.zipDeterministic(resolveBuildDir(buildsDir, buildNumber), policy, os);
+        } catch (Exception e) {
+            throw new BuildsManagementException(
+                Messages.builds_build_zip_error(jobName, buildNumber), e, jobName, buildNumber);
+        }
+    }
+
+    /**
+     * Hash the deterministic zip archive of the build without storing it, e.g. to skip the
+     * transfer of a build a peer already has, or as the key of a cached export.
+     *
+     * @param jobName     the job name
+     * @param buildNumber the build number
+     * @param policy      the policy selecting the files of the build
+     * @return the SHA-256 hash of the archive, in hexadecimal
+     * @throws BuildsManagementException if failed to
+     * @see #grabDeterministicBuild(String, int, CapturePolicy, OutputStream)
+     */
+    public String getBuildArchiveHash(String jobName, int buildNumber, CapturePolicy policy)
+        throws BuildsManagementException {
+        DigestOutputStream os =
+            new DigestOutputStream(new NullOutputStream(), DigestUtils.getSha256Digest());
+        grabDeterministicBuild(jobName, buildNumber, policy, os);
+        return Hex.encodeHexString(os.getMessageDigest().digest());
+    }
+
+    /**
+     * Grab the build as a zip archive written straight to the channel. A completed build
+     * served from the archive cache is transferred by the kernel, without copying it through
+     * the heap, when the channel is a file or a socket.
+     *
+     * @param jobName     the job name
+     * @param buildNumber the build number
+     * @param channel     the channel the zip archive is written to
+     * @throws BuildsManagementException if failed to
+     * @see #grabBuild(String, int, OutputStream)
+     */
+    public void grabBuild(String jobName, int buildNumber, WritableByteChannel channel)
+        throws BuildsManagementException {
+        Path archive = getCachedArchive(jobName, buildNumber);
+        if (archive != null) {
+            try {
+                TransferUtil.copy(archive, channel);
+                return;
+            } catch (NoSuchFileException e) {
+                // evicted before it was opened, nothing was written yet
+            } catch (IOException e) {
+                throw new BuildsManagementException(
+                    Messages.builds_build_zip_error(jobName, buildNumber), e, jobName,
+                    buildNumber);
+            }
+        }
+        grabBuild(jobName, buildNumber, CapturePolicy.DEFAULT, Channels.newOutputStream(channel));
+    }
+
+    /**
+     * Get the cached archive of a completed build, zipping it into the cache on a miss. A
+     * build still running is never cached, as its files keep changing. Concurrent misses of the
+     * same archive are zipped once, the other threads waiting for it. The archive may still be
+     * evicted before it is opened, in which case the caller zips the build itself.
+     *
+     * @param jobName     the job name
+     * @param buildNumber the build number
+     * @return the cached archive, null if there is no cache, the build is still running or its
+     * archive is too big for the cache
+     * @throws BuildsManagementException if failed to
+     */
+    private Path getCachedArchive(String jobName, int buildNumber)
+        throws BuildsManagementException {
+        if (archiveCache == null) {
+            return null;
+        }
+        Path buildsDir = getBuildsDir(jobName);
+        Path tmpFile = null;
+        try {
+            Path buildDir = resolveBuildDir(buildsDir, buildNumber);
+            if (!isBuildCompleted(buildDir)) {
+                return null;
+            }
+            String key = ArchiveCache.key(jobName, buildDir.getFileName().toString(),
+                ArchiveCache.fingerprint(buildDir));
+            Path archive = archiveCache.get(key);
+            if (archive != null) {
+                return archive;
+            }
+            Lock lock = archiveLocks[(key.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES];
+            lock.lock();
+            try {
+                archive = archiveCache.get(key);
+                if (archive != null) {
+                    return archive;
+                }
+                tmpFile = archiveCache.createTmpFile();
+                OutputStream os = Files.newOutputStream(tmpFile);
+                try {
+                    zipUtil.zip(buildDir, CapturePolicy.DEFAULT, os,
+                        Runtime.getRuntime().availableProcessors());
+                } finally {
+                    os.close();
+                }
+                return archiveCache.put(key, tmpFile);
+            } finally {
+                lock.unlock();
+            }
+        } catch (Exception e) {
+            throw new BuildsManagementException(
+                Messages.builds_build_zip_error(jobName, buildNumber), e, jobName, buildNumber);
+        } finally {
+            if (tmpFile != null) {
+                try {
+                    Files.deleteIfExists(tmpFile);
+                } catch (IOException e) {
+                    // left for the cache to clean up when it is reopened
+                }
+            }
+        }
+    }
+
+    /**
+     * @param buildDir the build directory
+     * @return true if the build is completed, that is its build.xml records its result, false
+     * if build.xml is missing or can not be parsed, e.g. while it is being written
+     * @throws IOException if failed to read build.xml
+     */
+    private static boolean isBuildCompleted(Path buildDir) throws IOException {
+        Path buildXml = buildDir.resolve(BUILD_XML);
+        if (!Files.isRegularFile(buildXml)) {
+            return false;
+        }
+        String xml = new String(Files.readAllBytes(buildXml), StandardCharsets.UTF_8);
+        NodeList results;
+        try {
+            results = XmlUtil.findNodeByXpath(XmlUtil.xmlToDocument(xml), "/*/result");
+        } catch (Exception e) {
+            return false;
+        }
+        return results != null && results.getLength() > 0
+            && !results.item(0).getTextContent().trim().isEmpty();
+    }
+
+    /**
+     * Grab the existing builds within the range, in parallel.
+     *
+     * @param jobName    the job name
+     * @param fromNumber the first build number, inclusive
+     * @param toNumber   the last build number, inclusive
+     * @param sink       the receiver of the zip archives
+     * @return the errors of the builds which failed to be zipped, by build number
+     * @throws BuildsManagementException if failed to
+     * @see #grabBuilds(String, Collection, BuildArchiveSink, int)
+     */
+    public Map<Integer, BuildsManagementException> grabBuilds(String jobName, int fromNumber,
+        int toNumber, BuildArchiveSink sink) throws BuildsManagementException {
+        return grabBuilds(jobName, getIndexedBuildNumbers(jobName, fromNumber, toNumber), sink,
+            Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Grab the builds as zip archives written to the streams opened by the sink. The builds
+     * directory is resolved once and the builds are zipped in parallel on a pool bounded by
+     * the parallelism. Each stream is closed as soon as its build is zipped, so archives are
+     * available as they complete. A failing build does not stop the others.
+     *
+     * @param jobName      the job name
+     * @param buildNumbers the build numbers
+     * @param sink         the receiver of the zip archives
+     * @param parallelism  the maximum number of builds zipped at the same time
+     * @return the errors of the builds which failed to be zipped, by build number
+     * @throws BuildsManagementException if failed to find the builds directory or interrupted
+     */
+    public Map<Integer, BuildsManagementException> grabBuilds(final String jobName,
+        Collection<Integer> buildNumbers, final BuildArchiveSink sink, int parallelism)
+        throws BuildsManagementException {
+        final Path buildsDir = getBuildsDir(jobName);
+        Map<Integer, Future<Void>> futures = new TreeMap<>();
+        Map<Integer, BuildsManagementException> failures = new TreeMap<>();
+        // unlike a ForkJoinPool, the error of a build is not wrapped, so it is reported as is
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        try {
+            for (final int buildNumber : buildNumbers) {
+                futures.put(buildNumber, pool.submit(new Callable<Void>() {
+                    @Override public Void call() throws Exception {
+                        OutputStream os = sink.open(buildNumber);
+                        try {
+                            zipUtil.zip(resolveBuildDir(buildsDir, buildNumber), os);
+                        } finally {
+                            os.close();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Map.Entry<Integer, Future<Void>> future : futures.entrySet()) {
+                int buildNumber = future.getKey();
+                try {
+                    future.getValue().get();
+                } catch (ExecutionException e) {
+                    failures.put(buildNumber, new BuildsManagementException(
+                        Messages.builds_build_zip_error(jobName, buildNumber), e.getCause(),
+                        jobName, buildNumber));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BuildsManagementException(Messages.builds_batch_zip_error(jobName), e,
+                jobName);
+        } finally {
+            pool.shutdownNow();
+        }
+        return failures;
+    }
+
+    /**
+     * @param jobName     the job name
+     * @param buildNumber the build number
+     * @return the manifest of the artifacts of the build, relative to its archive directory
+     * @throws BuildsManagementException if failed to compute the manifest
+     */
+    public BuildManifest getArtifactManifest(String jobName, int buildNumber)
+        throws BuildsManagementException {
+        Path buildsDir = getBuildsDir(jobName);
+        try {
+            Path archiveDir =
+                resolveBuildDir(buildsDir, buildNumber).resolve(ZipUtil.ARCHIVE_FILENAME);
+            return Files.isDirectory(archiveDir) ?
+                BuildManifest.of(archiveDir, CapturePolicy.FULL) :
+                new BuildManifest();
+        } catch (IOException e) {
+            throw new BuildsManagementException(
+                Messages.builds_build_manifest_error(jobName, buildNumber), e, jobName,
+                buildNumber);
+        }
+    }
+
+    /**
+     * Grab an artifact of the build, typically to serve the {@link ArtifactFetcher} of a peer.
+     * The stream is left open.
+     *
+     * @param jobName      the job name
+     * @param buildNumber  the build number
+     * @param relativePath the path of the artifact, relative to the archive directory
+     * @param os           the output stream the artifact is written to
+     * @throws BuildsManagementException if failed to read the artifact
+     */
+    public void grabArtifact(String jobName, int buildNumber, String relativePath,
+        OutputStream os) throws BuildsManagementException {
+        Path buildsDir = getBuildsDir(jobName);
+        try {
+            TransferUtil.copy(resolveBuildFile(buildsDir, buildNumber,
+                ZipUtil.ARCHIVE_FILENAME + "/" + relativePath), os);
+        } catch (IOException e) {
+            throw new BuildsManagementException(
+                Messages.builds_file_does_not_exist(jobName, buildNumber, relativePath), e,
+                jobName, buildNumber);
+        }
+    }
+
+    /**
+     * @param jobName     the job name
+     * @param buildNumber the build number
+     * @return the manifest of all files of the build
+     * @throws BuildsManagementException if failed to compute the manifest
+     */
+    public BuildManifest getBuildManifest(String jobName, int buildNumber)
+        throws BuildsManagementException {
+        Path buildsDir = getBuildsDir(jobName);
+        try {
+            return BuildManifest.of(resolveBuildDir(buildsDir, buildNumber));
+        } catch (IOException e) {
+            throw new BuildsManagementException(
+                Messages.builds_build_manifest_error(jobName, buildNumber), e, jobName,
+                buildNumber);
+        }
+    }
+
+    /**
+     * Grab only the files of the build which are missing or different in the manifest sent by
+     * a replica, as a zip archive written straight to the output stream. The stream is left
+     * open. Only the files the replica has with the same size are hashed. The files which only
+     * exist on the replica are listed, one per line, in the {@link #BUILD_DELTA_REMOVED} entry.
+     *
+     * @param jobName        the job name
+     * @param buildNumber    the build number
+     * @param remoteManifest the manifest of the build on the replica, null if it has none
+     * @param os             the output stream the partial zip archive is written to
+     * @throws BuildsManagementException if failed to
+     */
+    public void grabBuildDelta(String jobName, int buildNumber, BuildManifest remoteManifest,
+        OutputStream os) throws BuildsManagementException {
+        Path buildsDir = getBuildsDir(jobName);
+        try {
+            Path buildDir = resolveBuildDir(buildsDir, buildNumber);
+            BuildManifest manifest =
+                BuildManifest.of(buildDir, CapturePolicy.DEFAULT, remoteManifest);
+            Map<String, byte[]> contentEntries = new TreeMap<>();
+            SortedSet<String> removed = manifest.removed(remoteManifest);
+            if (!removed.isEmpty()) {
+                StringBuilder sb = new StringBuilder();
+                for (String path : removed) {
+                    sb.append(path).append('\n');
+                }
+                contentEntries.put(BUILD_DELTA_REMOVED,
+                    sb.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            zipUtil.zip(buildDir, manifest.diff(remoteManifest), contentEntries, os);
+        } catch (Exception e) {
+            throw new BuildsManagementException(
+                Messages.builds_build_zip_error(jobName, buildNumber), e, jobName, buildNumber);
+        }
+    }
+
+    /**
+     * Extract the build from a zip file to the builds directory.
+     *
+     * @param zipFileAsByteArray the zip file as byte array
+     * @param jobName            the job name
+     * @param buildNumber        the build number
+     * @return the path to the directory where is extracted build is located
+     * @throws BuildsManagementException if failed to
+     */
+    public Path extractBuild(byte[] zipFileAsByteArray, String jobName, int buildNumber,
+        String buildDirName) throws BuildsManagementException {
+        Path destDir = getBuildsDir(jobName);
+        return extractBuild(destDir, zipFileAsByteArray, jobName, buildNumber, buildDirName);
+    }
+
+    /**
+     * Extract the build from a zip archive read from the input stream to the builds directory.
+     *
+     * @param is           the input stream the zip archive is read from
+     * @param jobName      the job name
+     * @param buildNumber  the build number
+     * @param buildDirName the build directory name
+     * @return the path to the directory where is extracted build is located
+     * @throws BuildsManagementException if failed to
+     */
+    public Path extractBuild(InputStream is, String jobName, int buildNumber,
+        String buildDirName) throws BuildsManagementException {
+        Path destDir = getBuildsDir(jobName);
+        return extractBuild(destDir, is, jobName, buildNumber, buildDirName);
+    }
+
+    /**
+     * Extract the build from a zip archive compressed as a whole by the codec, as produced by
+     * {@link #grabBuild(String, int, CapturePolicy, StreamCodec, OutputStream)}.
+     *
+     * @param is           the input stream the compressed archive is read from
+     * @param codec        the codec the whole archive is compressed with
+     * @param jobName      the job name
+     * @param buildNumber  the build number
+     * @param buildDirName the build directory name
+     * @return the path to the directory where is extracted build is located
+     * @throws BuildsManagementException if failed to
+     */
+    public Path extractBuild(InputStream is, StreamCodec codec, String jobName, int buildNumber,
+        String buildDirName) throws BuildsManagementException {
+        return extractBuild(is, ArchiveFormat.ZIP, codec, jobName, buildNumber, buildDirName);
+    }
+
+    /**
+     * Extract the build from an archive of the format compressed as a whole by the codec, as
+     * produced by
+     * {@link #grabBuild(String, int, ArchiveFormat, CapturePolicy, StreamCodec, OutputStream)}.
+     * Entries are extracted as they are read, so a tar archive may still be in transfer.
+     *
+     * @param is           the input stream the compressed archive is read from
+     * @param format       the archive format
+     * @param codec        the codec the whole archive is compressed with
+     * @param jobName      the job name
+     * @param buildNumber  the build number
+     * @param buildDirName the build directory name
+     * @return the path to the directory where is extracted build is located
+     * @throws BuildsManagementException if failed to
+     */
+    public Path extractBuild(InputStream is, ArchiveFormat format, StreamCodec codec,
+        String jobName, int buildNumber, String buildDirName) throws BuildsManagementException {
+        Path destDir = getBuildsDir(jobName);
+        Path tmpBuildDir = null;
+        try {
+            tmpBuildDir = createTmpBuildDir(destDir, buildNumber);
+            if (format == ArchiveFormat.TAR) {
+                tarUtil.untar(is, codec, tmpBuildDir);
+            } else {
+                zipUtil.unzip(is, codec, tmpBuildDir);
+            }
+            return installBuildDir(tmpBuildDir, destDir, buildNumber, buildDirName);
+        } catch (Exception e) {
+            discardTmpBuildDir(tmpBuildDir, destDir, e);
+            throw new BuildsManagementException(
+                Messages.builds_build_unzip_error(jobName, buildNumber), e, jobName, buildNumber);
+        }
+    }
+
+    /**
+     * Extract the build from a zip archive read from the channel to the builds directory.
+     *
+     * @param channel      the channel the zip archive is read from
+     * @param jobName      the job name
+     * @param buildNumber  the build number
+     * @param buildDirName the build directory name
+     * @return the path to the directory where is extracted build is located
+     * @throws BuildsManagementException if failed to
+     * @see #extractBuild(InputStream, String, int, String)
+     */
+    public Path extractBuild(ReadableByteChannel channel, String jobName, int buildNumber,
+        String buildDirName) throws BuildsManagementException {
+        return extractBuild(Channels.newInputStream(channel), jobName, buildNumber, buildDirName);
+    }
+
+    /**
+     * Extract the build from a zip file to the specified destination directory.
+     *
+     * @param destDir            the path to the destination directory under which files will be extracted from the zip file
+     * @param zipFileAsByteArray the zip file as byte array
+     * @param jobName            the job name
+     * @param buildNumber        the build number
+     * @param buildDirName       the build directory name
+     * @return the path to the directory where is extracted build is located
+     * @throws BuildsManagementException if failed to
+     * @see #extractBuild(Path, InputStream, String, int, String)
+     */
+    public Path extractBuild(Path destDir, byte[] zipFileAsByteArray, String jobName,
+        int buildNumber, String buildDirName) throws BuildsManagementException {
+        return extractBuild(destDir, new ByteArrayInputStream(zipFileAsByteArray), jobName,
+            buildNumber, buildDirName);
+    }
+
+    /**
+     * Extract the build from a zip archive read from the input stream to the specified
+     * destination directory, which should be under builds directory. Entries are decompressed
+     * into the tmp directory as they are read, so neither an intermediate zip file nor an in
+     * memory copy of the archive is needed. Each extraction gets its own tmp directory, and
+     * only steps 2 to 4 hold the lock of the builds directory, so that builds of the same
+     * job can be extracted concurrently. This operation will be done in 4 steps:
+     * <lu>1. unzip the content to a tmp directory to make sure this is no issue.</lu>
+     * <lu>2. If it happens that the current build already exists locally, then save the existing one to a clashing directory. </lu>
+     * <lu>3. move the unzip contain to the destination directory (builds).</lu>
+     * <lu>4. create a build number link to the build directory named with a timestamp.</lu>
+     *
+     * @param destDir      the path to the destination directory under which files will be extracted from the zip archive
+     * @param is           the input stream the zip archive is read from
+     * @param jobName      the job name
+     * @param buildNumber  the build number
+     * @param buildDirName the build directory name
+     * @return the path to the directory where is extracted build is located
+     * @throws BuildsManagementException if failed to
+     */
+    public Path extractBuild(Path destDir, InputStream is, String jobName, int buildNumber,
+        String buildDirName) throws BuildsManagementException {
+        Path tmpBuildDir = null;
+        try {
+            tmpBuildDir = createTmpBuildDir(destDir, buildNumber);
+            zipUtil.unzip(is, tmpBuildDir);
+            return installBuildDir(tmpBuildDir, destDir, buildNumber, buildDirName);
+        } catch (Exception e) {
+            discardTmpBuildDir(tmpBuildDir, destDir, e);
+            throw new BuildsManagementException(
+                Messages.builds_build_unzip_error(jobName, buildNumber), e, jobName, buildNumber);
+        }
+    }
+
+    /**
+     * Extract the build from a zip file to the builds directory. As the archive is a file, its
+     * entries are inflated concurrently on all the processors, which pays off for builds made
+     * of many small files such as test reports.
+     *
+     * @param zipFile      the zip file
+     * @param jobName      the job name
+     * @param buildNumber  the build number
+     * @param buildDirName the build directory name
+     * @return the path to the directory where is extracted build is located
+     * @throws BuildsManagementException if failed to
+     * @see #extractBuild(Path, InputStream, String, int, String)
+     */
+    public Path extractBuild(Path zipFile, String jobName, int buildNumber, String buildDirName)
+        throws BuildsManagementException {
+        Path destDir = getBuildsDir(jobName);
+        Path tmpBuildDir = null;
+        try {
+            tmpBuildDir = createTmpBuildDir(destDir, buildNumber);
+            zipUtil.unzip(zipFile, tmpBuildDir, Runtime.getRuntime().availableProcessors());
+            return installBuildDir(tmpBuildDir, destDir, buildNumber, buildDirName);
+        } catch (Exception e) {
+            discardTmpBuildDir(tmpBuildDir, destDir, e);
+            throw new BuildsManagementException(
+                Messages.builds_build_unzip_error(jobName, buildNumber), e, jobName, buildNumber);
+        }
+    }
+
+    /**
+     * Apply a partial zip archive, as produced by
+     * {@link #grabBuildDelta(String, int, BuildManifest, OutputStream)}, on top of the existing
+     * build directory. Files are unzipped to a tmp directory first and then moved over the
+     * existing ones, instead of moving the existing build to the clashing directory. The files
+     * listed in the {@link #BUILD_DELTA_REMOVED} entry are deleted. If the
+     * build does not exist locally yet, the archive is extracted as a new build.
+     *
+     * @param is           the input stream the partial zip archive is read from
+     * @param jobName      the job name
+     * @param buildNumber  the build number
+     * @param buildDirName the build directory name
+     * @return the path to the build directory
+     * @throws BuildsManagementException if failed to
+     */
+    public Path extractBuildDelta(InputStream is, String jobName, int buildNumber,
+        String buildDirName) throws BuildsManagementException {
+        Path destDir = getBuildsDir(jobName);
+        Path destBuildDir = destDir.resolve(buildDirName);
+        if (!Files.isDirectory(destBuildDir)) {
+            return extractBuild(destDir, is, jobName, buildNumber, buildDirName);
+        }
+        Path tmpBuildDir = null;
+        try {
+            tmpBuildDir = createTmpBuildDir(destDir, buildNumber);
+            zipUtil.unzip(is, tmpBuildDir);
+            Lock lock = getBuildsDirLock(destDir);
+            lock.lock();
+            try {
+                applyToDestDir(tmpBuildDir, destBuildDir);
+                deleteTmpBuildDir(tmpBuildDir, destDir);
+                Path buildNumberDir = destDir.resolve("" + buildNumber);
+                if (!Files.exists(buildNumberDir, LinkOption.NOFOLLOW_LINKS)) {
+                    Files.createSymbolicLink(buildNumberDir, destBuildDir);
+                    getBuildDirIndex(destDir).put(buildNumber, buildDirName);
+                }
+                return destBuildDir;
+            } finally {
+                lock.unlock();
+            }
+        } catch (Exception e) {
+            discardTmpBuildDir(tmpBuildDir, destDir, e);
+            throw new BuildsManagementException(
+                Messages.builds_build_unzip_error(jobName, buildNumber), e, jobName, buildNumber);
+        }
+    }
+
+    /**
+     * Compute the signature of a file of the build, so that the sender can reply with a delta
+     * of it. A missing file has an empty signature.
+     *
+     * @param jobName      the job name
+     * @param buildNumber  the build number
+     * @param relativePath the path of the file relative to the build directory
+     * @return the signature of the local copy of the file
+     * @throws BuildsManagementException if failed to
+     */
+    public FileSignature getBuildFileSignature(String jobName, int buildNumber,
+        String relativePath) throws BuildsManagementException {
+        Path buildsDir = getBuildsDir(jobName);
+        try {
+            return deltaUtil.signature(resolveBuildFile(buildsDir, buildNumber, relativePath));
+        } catch (IOException e) {
+            throw new BuildsManagementException(
+                Messages.builds_file_delta_error(jobName, buildNumber, relativePath), e, jobName,
+                buildNumber);
+        }
+    }
+
+    /**
+     * Write the delta between a file of the build and the copy described by the signature
+     * to the output stream. Only the parts of the file missing on the receiver are sent,
+     * e.g. the last bytes of a growing log file. The stream is left open.
+     *
+     * @param jobName      the job name
+     * @param buildNumber  the build number
+     * @param relativePath the path of the file relative to the build directory
+     * @param signature    the signature of the receiver copy of the file
+     * @param os           the output stream the delta is written to
+     * @throws BuildsManagementException if failed to
+     */
+    public void grabBuildFileDelta(String jobName, int buildNumber, String relativePath,
+        FileSignature signature, OutputStream os) throws BuildsManagementException {
+        Path buildsDir = getBuildsDir(jobName);
+        try {
+            deltaUtil.delta(resolveBuildFile(buildsDir, buildNumber, relativePath), signature, os);
+        } catch (IOException e) {
+            throw new BuildsManagementException(
+                Messages.builds_file_delta_error(jobName, buildNumber, relativePath), e, jobName,
+                buildNumber);
+        }
+    }
+
+    /**
+     * Rebuild a file of the build from its local copy and the delta read from the input
+     * stream.
+     *
+     * @param is           the input stream the delta is read from
+     * @param jobName      the job name
+     * @param buildNumber  the build number
+     * @param relativePath the path of the file relative to the build directory
+     * @throws BuildsManagementException if failed to
+     */
+    public void applyBuildFileDelta(InputStream is, String jobName, int buildNumber,
+        String relativePath) throws BuildsManagementException {
+        Path buildsDir = getBuildsDir(jobName);
+        try {
+            Path file = resolveBuildFile(buildsDir, buildNumber, relativePath);
+            Files.createDirectories(file.getParent());
+            deltaUtil.patch(file, is);
+        } catch (IOException e) {
+            throw new BuildsManagementException(
+                Messages.builds_file_delta_error(jobName, buildNumber, relativePath), e, jobName,
+                buildNumber);
+        }
     }
 
     /**
-     * @return the path to builds directory
-     * @throws BuildsManagementException if failed to find the builds directory
+     * Read the bytes of the build log from the offset, typically the offset the receiver got
+     * up to, so that the log of a running build can be shipped as it grows. Only the
+     * requested range is read, with a positional read of the file.
+     *
+     * @param jobName     the job name
+     * @param buildNumber the build number
+     * @param offset      the offset to read from
+     * @param maxBytes    the maximum number of bytes to read
+     * @return the bytes read, empty if nothing was appended after the offset
+     * @throws BuildsManagementException if the offset or the maximum is negative, or failed to
+     *                                   read the log
      */
-    public Path getBuildsDir(String jobName) throws BuildsManagementException {
-        Path jobDir = jobsManager.getJobDir(jobName).toPath();
-        Path buildsDir = jobsManager.getJobDir(jobName).toPath().resolve(BUILDS_DIRNAME);
-        if (!Files.exists(jobDir)) {
-            throw new BuildsManagementException(Messages.jobs_job_dir_does_not_exist(jobName),
-                jobName);
+    public byte[] readBuildLog(String jobName, int buildNumber, long offset, int maxBytes)
+        throws BuildsManagementException {
+        if (offset < 0 || maxBytes < 0) {
+            throw new BuildsManagementException(
+                Messages.builds_log_read_range_error(jobName, buildNumber, offset, maxBytes),
+                jobName, buildNumber);
         }
+        Path buildsDir = getBuildsDir(jobName);
         try {
-            if (!Files.exists(buildsDir)) {
-                Files.createDirectory(buildsDir);
+            FileChannel channel = FileChannel.open(
+                resolveBuildDir(buildsDir, buildNumber).resolve(BUILD_LOG),
+                StandardOpenOption.READ);
+            try {
+                long available = Math.max(0, channel.size() - offset);
+                ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(maxBytes, available));
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, offset + buffer.position()) < 0) {
+                        break;
+                    }
+                }
+                return Arrays.copyOf(buffer.array(), buffer.position());
+            } finally {
+                channel.close();
             }
         } catch (IOException e) {
-            throw new BuildsManagementException(Messages.builds_dir_create_error(jobName), jobName);
+            throw new BuildsManagementException(
+                Messages.builds_log_read_error(jobName, buildNumber, offset), e, jobName,
+                buildNumber);
         }
-        return buildsDir;
     }
 
     /**
      * @param jobName     the job name
      * @param buildNumber the build number
-     * @return the path to number build directory
-     * @throws BuildsManagementException if failed to find the build directory
+     * @return the offset up to which the build log was received, 0 if there is no log yet
+     * @throws BuildsManagementException if failed to find the builds directory
      */
-    public Path getNumberBuildDir(String jobName, int buildNumber)
+    public long getBuildLogOffset(String jobName, int buildNumber)
         throws BuildsManagementException {
-        Path buildNumberDir = getBuildsDir(jobName).resolve("" + buildNumber);
-        return buildNumberDir;
+        Path log = getNumberBuildDir(jobName, buildNumber).resolve(BUILD_LOG);
+        try {
+            return Files.exists(log) ? Files.size(log) : 0;
+        } catch (IOException e) {
+            return 0;
+        }
     }
 
     /**
-     * @param jobName     the job name
-     * @param buildNumber the build number
-     * @return the name of the timestamp build directory
-     * @throws BuildsManagementException if failed to find the build directory
+     * Write the bytes received from the sender at the offset of the build log. The build
+     * directory and its build number link are created if this is the first chunk received.
+     * Receiving a chunk again is harmless, but the offset can not be past the end of the log.
+     *
+     * @param jobName      the job name
+     * @param buildNumber  the build number
+     * @param buildDirName the build directory name
+     * @param offset       the offset the bytes were read from on the sender
+     * @param bytes        the bytes read on the sender
+     * @return the new offset of the build log
+     * @throws BuildsManagementException if failed to append to the log
      */
-    public String getTimestampBuildDirName(String jobName, int buildNumber)
-        throws BuildsManagementException {
-        Path buildNumberDir = getNumberBuildDir(jobName, buildNumber);
+    public long appendBuildLog(String jobName, int buildNumber, String buildDirName, long offset,
+        byte[] bytes) throws BuildsManagementException {
+        Path buildsDir = getBuildsDir(jobName);
         try {
-            return Files.readSymbolicLink(buildNumberDir).getFileName().toString();
+            Path buildDir = buildsDir.resolve(buildDirName);
+            Path buildNumberDir = buildsDir.resolve("" + buildNumber);
+            if (!Files.exists(buildNumberDir, LinkOption.NOFOLLOW_LINKS)) {
+                Lock lock = getBuildsDirLock(buildsDir);
+                lock.lock();
+                try {
+                    Files.createDirectories(buildDir);
+                    if (!Files.exists(buildNumberDir, LinkOption.NOFOLLOW_LINKS)) {
+                        Files.createSymbolicLink(buildNumberDir, buildDir);
+                        getBuildDirIndex(buildsDir).put(buildNumber, buildDirName);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+            FileChannel channel = FileChannel.open(buildDir.resolve(BUILD_LOG),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                if (offset > channel.size()) {
+                    throw new IOException(
+                        "The offset is past the end of the log of size=" + channel.size());
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, offset + buffer.position());
+                }
+                return channel.size();
+            } finally {
+                channel.close();
+            }
         } catch (IOException e) {
             throw new BuildsManagementException(
-                Messages.builds_build_dir_name_error(jobName, buildNumber), e, jobName,
+                Messages.builds_log_append_error(jobName, buildNumber, offset), e, jobName,
                 buildNumber);
         }
     }
 
+    private void applyToDestDir(final Path tmpBuildDir, final Path destBuildDir)
+        throws IOException {
+        Path removedList = tmpBuildDir.resolve(BUILD_DELTA_REMOVED);
+        if (Files.exists(removedList)) {
+            for (String path : Files.readAllLines(removedList, StandardCharsets.UTF_8)) {
+                if (!path.isEmpty()) {
+                    Files.deleteIfExists(ZipUtil.resolveEntry(destBuildDir, path));
+                }
+            }
+            Files.delete(removedList);
+        }
+        Files.walkFileTree(tmpBuildDir, new SimpleFileVisitor<Path>() {
+            @Override public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                throws IOException {
+                Path destFile = destBuildDir.resolve(tmpBuildDir.relativize(file));
+                Files.createDirectories(destFile.getParent());
+                Files.move(file, destFile, StandardCopyOption.REPLACE_EXISTING);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private Path resolveBuildDir(Path buildsDir, int buildNumber) throws IOException {
+        BuildDirIndex index = getBuildDirIndex(buildsDir);
+        String buildDirName = index.getBuildDirName(buildNumber);
+        if (buildDirName != null) {
+            return buildsDir.resolve(buildDirName);
+        }
+        // not indexed yet, e.g. the watch event of a new build is still pending
+        Path buildDir =
+            buildsDir.resolve(Files.readSymbolicLink(buildsDir.resolve("" + buildNumber)));
+        index.put(buildNumber, buildDir.getFileName().toString());
+        return buildDir;
+    }
+
+    private BuildDirIndex getBuildDirIndex(Path buildsDir) throws IOException {
+        BuildDirIndex index = buildDirWatcher.getIndex(buildsDir);
+        return index != null ? index : buildDirWatcher.watch(buildsDir);
+    }
+
     /**
-     * Grab the build as a zip file and store it under the builds directory.
-     *
-     * @param jobName     the job name
-     * @param buildNumber the build number
-     * @return a zip file as byte array
-     * @throws BuildsManagementException if failed to
+     * @param jobName    the job name
+     * @param fromNumber the first build number, inclusive
+     * @param toNumber   the last build number, inclusive
+     * @return the numbers of the indexed builds within the range, in ascending order
+     * @throws BuildsManagementException if failed to find the job or to index its builds
      */
-    public byte[] grabBuild(String jobName, int buildNumber) throws BuildsManagementException {
-        String zipFileName = getZipFileName(jobName, buildNumber);
-        Path buildsDir = getBuildsDir(jobName);
-        Path numberBuildDir = getNumberBuildDir(jobName, buildNumber);
-        try {
-            Path timestampBuildDir = Files.readSymbolicLink(numberBuildDir);
-            Path buildDir = buildsDir.resolve(timestampBuildDir);
-            zipUtil.zip(buildDir, buildsDir, zipFileName);
-            Path zipFile = getZipFile(buildsDir, jobName, buildNumber);
-            byte[] fileAsByteArray = Files.readAllBytes(zipFile);
-            Files.delete(zipFile);
-            return fileAsByteArray;
-        } catch (Exception e) {
-            throw new BuildsManagementException(
-                Messages.builds_build_zip_error(jobName, buildNumber), e, jobName, buildNumber);
+    private List<Integer> getIndexedBuildNumbers(String jobName, int fromNumber, int toNumber)
+        throws BuildsManagementException {
+        try {
+            return new ArrayList<>(getBuildDirIndex(getBuildsDir(jobName))
+                .getBuildDirNames(fromNumber, toNumber).keySet());
+        } catch (IOException e) {
+            throw new BuildsManagementException(Messages.builds_list_error(jobName), e, jobName);
         }
     }
 
     /**
-     * Extract the build from a zip file to the builds directory.
-     *
-     * @param zipFileAsByteArray the zip file as byte array
-     * @param jobName            the job name
-     * @param buildNumber        the build number
-     * @return the path to the directory where is extracted build is located
-     * @throws BuildsManagementException if failed to
+     * @param jobName the job name
+     * @return the index of the builds directory of the job, null if it is not indexed yet
      */
-    public Path extractBuild(byte[] zipFileAsByteArray, String jobName, int buildNumber,
-        String buildDirName) throws BuildsManagementException {
-        Path destDir = getBuildsDir(jobName);
-        return extractBuild(destDir, zipFileAsByteArray, jobName, buildNumber, buildDirName);
+    private BuildDirIndex findBuildDirIndex(String jobName) {
+        return buildDirWatcher
+            .getIndex(jobsManager.getJobDir(jobName).toPath().resolve(BUILDS_DIRNAME));
+    }
+
+    private Path resolveBuildFile(Path buildsDir, int buildNumber, String relativePath)
+        throws IOException {
+        Path buildDir = resolveBuildDir(buildsDir, buildNumber);
+        Path file = ZipUtil.resolveEntry(buildDir, relativePath);
+        if (file.equals(buildDir.toAbsolutePath().normalize())) {
+            throw new IOException("The path=" + relativePath + " is not a build file");
+        }
+        return file;
     }
 
     /**
-     * Extract the build from a zip file to the specified destination directory, which should be
-     * under builds directory. This operation will be done in 4 steps:
-     * <lu>1. unzip the content to a tmp directory to make sure this is no issue.</lu>
-     * <lu>2. If it happens that the current build already exists locally, then save the existing one to a clashing directory. </lu>
-     * <lu>3. move the unzip contain to the destination directory (builds).</lu>
-     * <lu>4. create a build number link to the build directory named with a timestamp.</lu>
-     *
-     * @param destDir            the path to the destination directory under which files will be extracted from the zip file
-     * @param zipFileAsByteArray the zip file as byte array
-     * @param jobName            the job name
-     * @param buildNumber        the build number
-     * @param buildDirName       the build directory name
-     * @return the path to the directory where is extracted build is located
-     * @throws BuildsManagementException if failed to
+     * Delete the directory and the number link of a build. As in {@link Run#delete()}, the
+     * directory is renamed first so that a partial removal never looks like a build.
      */
-    public Path extractBuild(Path destDir, byte[] zipFileAsByteArray, String jobName,
-        int buildNumber, String buildDirName) throws BuildsManagementException {
-        Path buildNumberDir = destDir.resolve("" + buildNumber);
-        Path zipFile = getZipFile(destDir, jobName, buildNumber);
+    private void deleteBuildDir(Path buildsDir, int buildNumber) throws IOException {
+        Path buildNumberDir = buildsDir.resolve("" + buildNumber);
+        Path buildDir = resolveBuildDir(buildsDir, buildNumber);
+        Path deletedBuildDir = buildsDir.resolve("." + buildDir.getFileName());
+        Lock lock = getBuildsDirLock(buildsDir);
+        lock.lock();
         try {
-            Path tmpBuildDir = createTmpBuildDir(destDir, buildNumber);
-            unzipToTmpDir(zipFileAsByteArray, zipFile, tmpBuildDir);
-            saveClashingBuild(buildNumberDir, destDir, buildDirName);
-            Path destBuildDir = moveToDestDir(tmpBuildDir, destDir, buildDirName);
-            Files.createSymbolicLink(buildNumberDir, destBuildDir);
-            return destBuildDir;
-        } catch (Exception e) {
-            throw new BuildsManagementException(
-                Messages.builds_build_unzip_error(jobName, buildNumber), e, jobName, buildNumber);
+            if (Files.exists(deletedBuildDir)) {
+                FileUtils.deleteDirectory(deletedBuildDir.toFile());
+            }
+            if (Files.exists(buildDir)) {
+                Files.move(buildDir, deletedBuildDir);
+            }
+            Files.deleteIfExists(buildNumberDir);
+            getBuildDirIndex(buildsDir).remove(buildNumber);
+        } finally {
+            lock.unlock();
+        }
+        if (Files.exists(deletedBuildDir)) {
+            FileUtils.deleteDirectory(deletedBuildDir.toFile());
         }
     }
 
@@ -180,10 +1197,65 @@ public class BuildsManager {
         if (!Files.exists(destBuildDir)) {
             Files.move(tmpBuildDir, destBuildDir);
         }
-        Files.delete(destDir.resolve(BUILD_TMP));
+        deleteTmpBuildDir(tmpBuildDir, destDir);
         return destBuildDir;
     }
 
+    /**
+     * Steps 2 to 4 of an extraction: save the clashing build, move the extracted build to the
+     * builds directory and link the build number to it.
+     */
+    private Path installBuildDir(Path tmpBuildDir, Path destDir, int buildNumber,
+        String buildDirName) throws IOException {
+        Path buildNumberDir = destDir.resolve("" + buildNumber);
+        Lock lock = getBuildsDirLock(destDir);
+        lock.lock();
+        try {
+            saveClashingBuild(buildNumberDir, destDir, buildDirName);
+            Path destBuildDir = moveToDestDir(tmpBuildDir, destDir, buildDirName);
+            Files.deleteIfExists(buildNumberDir);
+            Files.createSymbolicLink(buildNumberDir, destBuildDir);
+            getBuildDirIndex(destDir).put(buildNumber, buildDirName);
+            return destBuildDir;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Delete the tmp directory of an extraction, then the tmp builds directory once no other
+     * extraction uses it. Must be called with the lock of the builds directory held.
+     */
+    private void deleteTmpBuildDir(Path tmpBuildDir, Path destDir) throws IOException {
+        if (Files.exists(tmpBuildDir)) {
+            FileUtils.deleteDirectory(tmpBuildDir.toFile());
+        }
+        try {
+            Files.deleteIfExists(destDir.resolve(BUILD_TMP));
+        } catch (DirectoryNotEmptyException e) {
+            // another extraction is in progress
+        }
+    }
+
+    /**
+     * Delete the tmp directory of a failed extraction, if it is still there, so that it does
+     * not pile up under the tmp builds directory. A failure to do so is added to the cause.
+     */
+    private void discardTmpBuildDir(Path tmpBuildDir, Path destDir, Exception cause) {
+        if (tmpBuildDir == null) {
+            return;
+        }
+        Lock lock = getBuildsDirLock(destDir);
+        lock.lock();
+        try {
+            deleteTmpBuildDir(tmpBuildDir, destDir);
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
     private void saveClashingBuild(Path buildDir, Path destDir, String buildDirName)
         throws IOException {
         Path clashingDir = destDir.resolve(BUILD_CLASHING);
@@ -198,57 +1270,119 @@ public class BuildsManager {
         }
     }
 
-    private void unzipToTmpDir(byte[] zipFileAsByteArray, Path zipFile, Path tmpBuildDir)
-        throws Exception {
-        Files.createFile(zipFile);
-        Files.write(zipFile, zipFileAsByteArray);
-        zipUtil.unzip(zipFile, tmpBuildDir);
-        Files.delete(zipFile);
-    }
-
     private Path createTmpBuildDir(Path destDir, int buildNumber) throws IOException {
         Path tmpBuildsDir = destDir.resolve(BUILD_TMP);
-        Path tmpBuildNumberDir = tmpBuildsDir.resolve("" + buildNumber);
-
-        if (!Files.exists(tmpBuildsDir)) {
-            Files.createDirectory(tmpBuildsDir);
-        }
-        if (Files.exists(tmpBuildNumberDir)) {
-            Files.delete(tmpBuildNumberDir);
+        Lock lock = getBuildsDirLock(destDir);
+        lock.lock();
+        try {
+            Files.createDirectories(tmpBuildsDir);
+            return Files.createTempDirectory(tmpBuildsDir, buildNumber + "-");
+        } finally {
+            lock.unlock();
         }
-        Files.createDirectory(tmpBuildNumberDir);
+    }
 
-        return tmpBuildNumberDir;
+    private Lock getBuildsDirLock(Path buildsDir) {
+        return buildsDirLocks[(buildsDir.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES];
     }
 
     /**
-     * @param buildsDir   the builds directory
-     * @param jobName     the job name
-     * @param buildNumber the build number
-     * @return the path to the zip file
-     * @throws BuildsManagementException if failed to find the zip file
+     * @param project the project
+     * @return the list of builds under the project
      */
-    private Path getZipFile(Path buildsDir, String jobName, int buildNumber)
-        throws BuildsManagementException {
-        String zipFileName = getZipFileName(jobName, buildNumber);
-        return buildsDir.resolve(zipFileName);
+    public RunList listBuilds(AbstractProject project) {
+        return project.getBuilds();
     }
 
     /**
-     * @param jobName     the job name
-     * @param buildNumber the build number
-     * @return the build zip file name
+     * List the builds of the job straight from the builds directory, in build number order.
+     * No Run is loaded: numbers come from the build directory index, and only the builds of
+     * the requested page have their sizes computed.
+     *
+     * @param jobName       the job name
+     * @param afterNumber   only list builds with a greater number, 0 for all
+     * @param modifiedSince only list builds modified at or after this time in milliseconds,
+     *                      0 for all
+     * @param offset        the number of matching builds to skip
+     * @param limit         the maximum number of builds to list
+     * @return the summaries of the matching builds
+     * @throws BuildsManagementException if failed to read the builds directory
      */
-    private String getZipFileName(String jobName, int buildNumber) {
-        return jobName + BUILD_TAG + buildNumber + zipUtil.ZIP_SUFFIX;
+    public List<BuildSummary> listBuildSummaries(String jobName, int afterNumber,
+        long modifiedSince, int offset, int limit) throws BuildsManagementException {
+        Path buildsDir = getBuildsDir(jobName);
+        List<BuildSummary> summaries = new ArrayList<>();
+        if (afterNumber == Integer.MAX_VALUE) {
+            return summaries;
+        }
+        try {
+            BuildDirIndex index = getBuildDirIndex(buildsDir);
+            int skipped = 0;
+            for (Map.Entry<Integer, String> entry : index
+                .getBuildDirNames(Math.max(afterNumber + 1, 1), Integer.MAX_VALUE).entrySet()) {
+                if (summaries.size() >= limit) {
+                    break;
+                }
+                int buildNumber = entry.getKey();
+                String buildDirName = entry.getValue();
+                // without a time filter, the page is found from the index alone
+                if (modifiedSince <= 0 && skipped < offset) {
+                    skipped++;
+                    continue;
+                }
+                Path buildDir = buildsDir.resolve(buildDirName);
+                long lastModified = getLastModified(buildDir);
+                if (lastModified < 0 || lastModified < modifiedSince) {
+                    continue;
+                }
+                if (skipped < offset) {
+                    skipped++;
+                    continue;
+                }
+                summaries.add(
+                    new BuildSummary(buildNumber, buildDirName, lastModified, getSize(buildDir)));
+            }
+        } catch (IOException e) {
+            throw new BuildsManagementException(Messages.builds_list_error(jobName), e, jobName);
+        }
+        return summaries;
     }
 
     /**
-     * @param project the project
-     * @return the list of builds under the project
+     * @return the most recent modification time of the build directory and of its build.xml
+     * and log files, -1 if the build directory does not exist
      */
-    public RunList listBuilds(AbstractProject project) {
-        return project.getBuilds();
+    private long getLastModified(Path buildDir) throws IOException {
+        if (!Files.isDirectory(buildDir)) {
+            return -1;
+        }
+        long lastModified = Files.getLastModifiedTime(buildDir).toMillis();
+        for (String fileName : new String[] {BUILD_XML, BUILD_LOG}) {
+            Path file = buildDir.resolve(fileName);
+            if (Files.exists(file)) {
+                lastModified =
+                    Math.max(lastModified, Files.getLastModifiedTime(file).toMillis());
+            }
+        }
+        return lastModified;
+    }
+
+    private long getSize(Path buildDir) throws IOException {
+        final long[] size = {0};
+        Files.walkFileTree(buildDir, new SimpleFileVisitor<Path>() {
+            @Override public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    size[0] += attrs.size();
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // the file was removed meanwhile
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return size[0];
     }
 
     /**
@@ -268,14 +1402,23 @@ public class BuildsManager {
     }
 
     /**
+     * The existence is checked against the index of the builds directory, without loading the
+     * build. Only a build missing from the index is looked up on the filesystem.
+     *
      * @param jobName     the jobName
      * @param buildNumber the build number
      * @return true if the build exists, false otherwise
      */
     public boolean buildExists(String jobName, int buildNumber) {
+        BuildDirIndex index = findBuildDirIndex(jobName);
+        if (index != null && index.contains(buildNumber)) {
+            return true;
+        }
         try {
-            return (getBuild(jobName, buildNumber) != null);
-        } catch (BuildsManagementException e) {
+            index = getBuildDirIndex(getBuildsDir(jobName));
+            index.refresh("" + buildNumber);
+            return index.contains(buildNumber);
+        } catch (BuildsManagementException | IOException e) {
             return false;
         }
     }
@@ -297,36 +1440,275 @@ public class BuildsManager {
         FreeStyleBuild build = null;
         FreeStyleProject project;
         project = jobsManager.getFreeStyleProject(jobName);
-        build = new FreeStyleBuild(project, buildFolder.toFile());
+        build = newFreeStyleBuild(project, buildFolder);
 
         performBuildMaintenance(project, build);
 
         return build;
     }
 
+    /**
+     * Create a new build whose artifacts are left on the peer. The placeholder manifest of the
+     * artifacts is stored in the build folder and the build is given a
+     * {@link LazyArtifactManager}, which fetches each artifact the first time it is accessed
+     * through the fetcher set by {@link #setArtifactFetcher(ArtifactFetcher)}.
+     *
+     * @param jobName     the job name
+     * @param buildFolder the path to the build folder, typically extracted without its archive
+     * @param artifacts   the manifest of the artifacts, as returned by
+     *                    {@link #getArtifactManifest(String, int)} on the peer
+     * @return the created build
+     * @throws BuildsManagementException if failed to create the build
+     * @throws InterruptedException if interrupted.
+     * @throws IOException if io error occurs.
+     * @throws JobManagementException if it occurs
+     */
+    public FreeStyleBuild createLazyFreeStyleBuild(String jobName, Path buildFolder,
+        BuildManifest artifacts)
+        throws BuildsManagementException, IOException, InterruptedException, JobManagementException {
+        LazyArtifactManager.saveManifest(buildFolder, artifacts);
+        Path buildXml = buildFolder.resolve(BUILD_XML);
+        try {
+            String xml = new String(Files.readAllBytes(buildXml), StandardCharsets.UTF_8);
+            Files.write(buildXml, XmlUtil.setRootChildElement(xml, ARTIFACT_MANAGER,
+                LazyArtifactManager.class.getName()).getBytes(StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            throw new BuildsManagementException(Messages.builds_freestyle_create_error(jobName),
+                e, jobName);
+        }
+        return createFreeStyleBuild(jobName, buildFolder);
+    }
+
+    /**
+     * @param artifactFetcher the fetcher of the artifacts of the builds created by
+     *                        {@link #createLazyFreeStyleBuild(String, Path, BuildManifest)}
+     */
+    public void setArtifactFetcher(ArtifactFetcher artifactFetcher) {
+        LazyArtifactManager.setFetcher(artifactFetcher);
+    }
+
+    /**
+     * Create new builds and then dynamically add them to their parent job. Builds are loaded in
+     * parallel, then the job permalinks, next build number and symlinks are updated once for
+     * the whole batch instead of once per build.
+     *
+     * @param jobName      the job name
+     * @param buildFolders the paths to the build folders
+     * @return the created builds, ordered by build number
+     * @throws BuildsManagementException if failed to create any build
+     * @throws InterruptedException if interrupted.
+     * @throws IOException if io error occurs.
+     * @throws JobManagementException if it occurs
+     */
+    public List<FreeStyleBuild> createFreeStyleBuilds(String jobName, List<Path> buildFolders)
+        throws BuildsManagementException, IOException, InterruptedException, JobManagementException {
+        FreeStyleProject project = jobsManager.getFreeStyleProject(jobName);
+        List<FreeStyleBuild> builds = loadFreeStyleBuilds(jobName, project, buildFolders);
+        if (builds.isEmpty()) {
+            return builds;
+        }
+
+        for (FreeStyleBuild build : builds) {
+            loadBuildActions(build);
+        }
+        updatePermalinks(project, builds);
+
+        FreeStyleBuild lastBuild = builds.get(builds.size() - 1);
+        project.updateNextBuildNumber(
+            Math.max(project.getNextBuildNumber(), lastBuild.getNumber() + 1));
+        lastBuild.updateSymlinks(TaskListener.NULL);
+
+        return builds;
+    }
+
+    private List<FreeStyleBuild> loadFreeStyleBuilds(String jobName,
+        final FreeStyleProject project, List<Path> buildFolders)
+        throws BuildsManagementException, InterruptedException {
+        List<Future<FreeStyleBuild>> futures = new ArrayList<>();
+        List<FreeStyleBuild> builds = new ArrayList<>();
+        // unlike a ForkJoinPool, the error of a build is not wrapped, so it is reported as is
+        ExecutorService pool =
+            Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            for (final Path buildFolder : buildFolders) {
+                futures.add(pool.submit(new Callable<FreeStyleBuild>() {
+                    @Override public FreeStyleBuild call() throws IOException {
+                        return newFreeStyleBuild(project, buildFolder);
+                    }
+                }));
+            }
+            for (Future<FreeStyleBuild> future : futures) {
+                builds.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            throw new BuildsManagementException(Messages.builds_freestyle_create_error(jobName),
+                e.getCause(), jobName);
+        } finally {
+            pool.shutdownNow();
+        }
+        Collections.sort(builds, new Comparator<FreeStyleBuild>() {
+            @Override public int compare(FreeStyleBuild b1, FreeStyleBuild b2) {
+                return Integer.compare(b1.getNumber(), b2.getNumber());
+            }
+        });
+        return builds;
+    }
+
+    /**
+     * Load a build from its folder. Package private so that tests can stub the loading, which
+     * needs a running Jenkins.
+     */
+    FreeStyleBuild newFreeStyleBuild(FreeStyleProject project, Path buildFolder)
+        throws IOException {
+        return new FreeStyleBuild(project, buildFolder.toFile());
+    }
+
+    /**
+     * Only the latest build of the batch matching each permalink can change it, so completion
+     * is fired for those builds alone, in build number order.
+     */
+    private void updatePermalinks(FreeStyleProject project, List<FreeStyleBuild> builds) {
+        SortedSet<Integer> buildNumbers = new TreeSet<>();
+        for (PeepholePermalink permalink : Util
+            .filter(PermalinkProjectAction.Permalink.BUILTIN, PeepholePermalink.class)) {
+            for (int i = builds.size() - 1; i >= 0; i--) {
+                if (permalink.apply(builds.get(i))) {
+                    buildNumbers.add(builds.get(i).getNumber());
+                    break;
+                }
+            }
+        }
+        for (int buildNumber : buildNumbers) {
+            PeepholePermalink.RunListenerImpl
+                .fireCompleted(project.getBuildByNumber(buildNumber), TaskListener.NULL);
+        }
+    }
+
     private void performBuildMaintenance(AbstractProject<FreeStyleProject, FreeStyleBuild> project,
         FreeStyleBuild build) throws BuildsManagementException, IOException, InterruptedException {
 
       PeepholePermalink.RunListenerImpl
             .fireCompleted(project.getBuildByNumber(build.getNumber()), TaskListener.NULL);
 
-      for (Action a : build.getAllActions()) {
-        if (a instanceof RunAction2) {
-            ((RunAction2) a).onLoad(build);
-        } else if (a instanceof RunAction) {
-            ((RunAction) a).onLoad();
-        }
-      }
-
-      if (build.getArtifactManager() != null) {
-        build.getArtifactManager().onLoad(build);
-      }
+      loadBuildActions(build);
 
       project.assignBuildNumber();
       build.updateSymlinks(TaskListener.NULL);
 
     }
 
+    private void loadBuildActions(FreeStyleBuild build) {
+        for (Action a : build.getAllActions()) {
+            if (a instanceof RunAction2) {
+                ((RunAction2) a).onLoad(build);
+            } else if (a instanceof RunAction) {
+                ((RunAction) a).onLoad();
+            }
+        }
+
+        if (build.getArtifactManager() != null) {
+            build.getArtifactManager().onLoad(build);
+        }
+    }
+
+    /**
+     * Delete the builds of a range, typically a retention sweep.
+     *
+     * @param jobName    the job name
+     * @param fromNumber the first build number, inclusive
+     * @param toNumber   the last build number, inclusive
+     * @return the errors of the builds which failed to be deleted, by build number
+     * @throws BuildsManagementException if failed to find the job or its builds directory
+     * @see #deleteBuilds(String, Collection, int)
+     */
+    public Map<Integer, BuildsManagementException> deleteBuilds(String jobName, int fromNumber,
+        int toNumber) throws BuildsManagementException {
+        return deleteBuilds(jobName, getIndexedBuildNumbers(jobName, fromNumber, toNumber),
+            Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Delete the builds of a freestyle job. The project is resolved once, then the builds are
+     * deleted in parallel on a pool bounded by the parallelism: the listeners are told, the
+     * artifacts are deleted by the artifact manager and the directory is removed, as
+     * {@link Run#delete()} does. Only the builds whose directory is gone are detached from the
+     * project. The permalinks are updated a single time at the end, instead of once per deleted
+     * build. A failing build does not stop the others.
+     *
+     * @param jobName      the job name
+     * @param buildNumbers the build numbers
+     * @param parallelism  the maximum number of build directories removed at the same time
+     * @return the errors of the builds which failed to be deleted, by build number
+     * @throws BuildsManagementException if failed to find the job or interrupted
+     */
+    public Map<Integer, BuildsManagementException> deleteBuilds(final String jobName,
+        Collection<Integer> buildNumbers, int parallelism) throws BuildsManagementException {
+        FreeStyleProject project;
+        try {
+            project = jobsManager.getFreeStyleProject(jobName);
+        } catch (JobManagementException e) {
+            throw new BuildsManagementException(Messages.builds_batch_delete_error(jobName), e,
+                jobName);
+        }
+        final Path buildsDir = getBuildsDir(jobName);
+        Map<Integer, FreeStyleBuild> builds = new TreeMap<>();
+        for (int buildNumber : buildNumbers) {
+            FreeStyleBuild build = project.getBuildByNumber(buildNumber);
+            if (build != null) {
+                builds.put(buildNumber, build);
+            }
+        }
+
+        Map<Integer, Future<Void>> futures = new TreeMap<>();
+        Map<Integer, BuildsManagementException> failures = new TreeMap<>();
+        // unlike a ForkJoinPool, the error of a build is not wrapped, so it is reported as is
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        try {
+            for (final int buildNumber : buildNumbers) {
+                final FreeStyleBuild build = builds.get(buildNumber);
+                futures.put(buildNumber, pool.submit(new Callable<Void>() {
+                    @Override public Void call() throws Exception {
+                        if (build != null) {
+                            RunListener.fireDeleted(build);
+                            ArtifactManager artifactManager = build.getArtifactManager();
+                            if (artifactManager != null) {
+                                artifactManager.delete();
+                            }
+                        }
+                        deleteBuildDir(buildsDir, buildNumber);
+                        return null;
+                    }
+                }));
+            }
+            for (Map.Entry<Integer, Future<Void>> future : futures.entrySet()) {
+                int buildNumber = future.getKey();
+                try {
+                    future.getValue().get();
+                    if (builds.containsKey(buildNumber)) {
+                        project.getBuilds().remove(builds.get(buildNumber));
+                    }
+                } catch (ExecutionException e) {
+                    failures.put(buildNumber, new BuildsManagementException(
+                        Messages.builds_freestyle_delete_error(jobName, buildNumber),
+                        e.getCause(), jobName, buildNumber));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BuildsManagementException(Messages.builds_batch_delete_error(jobName), e,
+                jobName);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // a permalink pointing to a deleted build falls back to the nearest older matching one
+        for (PeepholePermalink permalink : Util
+            .filter(PermalinkProjectAction.Permalink.BUILTIN, PeepholePermalink.class)) {
+            permalink.resolve(project);
+        }
+        return failures;
+    }
+
     /**
      * @param jobName     the job name
      * @param buildNumber the build number
@@ -339,6 +1721,10 @@ public class BuildsManager {
             Run build = project.getBuildByNumber(buildNumber);
             build.delete();
             project.getBuilds().remove(build);
+            BuildDirIndex index = findBuildDirIndex(jobName);
+            if (index != null) {
+                index.remove(buildNumber);
+            }
         } catch (IOException | JobManagementException e) {
             throw new BuildsManagementException(
                 Messages.builds_freestyle_delete_error(jobName, buildNumber), e, jobName,
@@ -0,0 +1,179 @@
+package com.ericsson.jenkinsci.hajp.api;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Merkle tree of the config digests of the jobs, to find the jobs whose config differs between
+ * two instances without shipping all the configs. The jobs are bucketed into the leaves by the
+ * first hexadecimal digits of the SHA-256 hash of their names, so each inner node has sixteen
+ * children. Two instances compare their root hashes, then descend level by level into the
+ * children whose hashes differ only, so the differing jobs are found in as many steps as the
+ * depth of the tree while the others are never listed. Both instances must use the same depth.
+ */
+public class ConfigMerkleTree implements MerkleTreeView {
+    public static final int FANOUT = 16;
+    /* 4096 leaves, a handful of jobs per leaf up to some tens of thousands of jobs */
+    public static final int DEFAULT_DEPTH = 3;
+    /* Deeper leaf paths would not fit the int leaf indexes */
+    public static final int MAX_DEPTH = 7;
+
+    private final int depth;
+    /* Hashes of the nodes by level, the root being the only node of level 0 */
+    private final String[][] hashes;
+    /* Config digests of the jobs by leaf index, then by job name */
+    private final List<SortedMap<String, String>> leaves;
+
+    /**
+     * Constructor, computing all the hashes of the tree.
+     *
+     * @param configDigests the config digests of the jobs, by job name
+     * @param depth         the number of levels below the root, from 1 to {@link #MAX_DEPTH}
+     * @throws IllegalArgumentException if the depth is out of bounds
+     */
+    public ConfigMerkleTree(Map<String, String> configDigests, int depth) {
+        if (depth < 1 || depth > MAX_DEPTH) {
+            throw new IllegalArgumentException(
+                "The depth=" + depth + " is not between 1 and " + MAX_DEPTH);
+        }
+        this.depth = depth;
+        int leafCount = 1 << (4 * depth);
+        leaves = new ArrayList<>(leafCount);
+        for (int i = 0; i < leafCount; i++) {
+            leaves.add(new TreeMap<String, String>());
+        }
+        for (Map.Entry<String, String> digest : configDigests.entrySet()) {
+            leaves.get(index(getPath(digest.getKey(), depth)))
+                .put(digest.getKey(), digest.getValue());
+        }
+
+        hashes = new String[depth + 1][];
+        hashes[depth] = new String[leafCount];
+        for (int i = 0; i < leafCount; i++) {
+            hashes[depth][i] = hashLeaf(leaves.get(i));
+        }
+        for (int level = depth - 1; level >= 0; level--) {
+            hashes[level] = new String[hashes[level + 1].length / FANOUT];
+            for (int i = 0; i < hashes[level].length; i++) {
+                MessageDigest digest = DigestUtils.getSha256Digest();
+                for (int child = 0; child < FANOUT; child++) {
+                    digest.update(hashes[level + 1][i * FANOUT + child]
+                        .getBytes(StandardCharsets.UTF_8));
+                }
+                hashes[level][i] = Hex.encodeHexString(digest.digest());
+            }
+        }
+    }
+
+    /**
+     * @param jobName the job name
+     * @param depth   the depth of the tree
+     * @return the path of the leaf of the job
+     */
+    public static String getPath(String jobName, int depth) {
+        return DigestUtils.sha256Hex(jobName).substring(0, depth);
+    }
+
+    @Override public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return the hash of the root, equal on both instances when all the configs are
+     */
+    public String getRootHash() {
+        return hashes[0][0];
+    }
+
+    /**
+     * @param path the path of a node
+     * @return the hash of the node
+     */
+    public String getHash(String path) {
+        return hashes[path.length()][index(path)];
+    }
+
+    @Override public String[] getChildHashes(String path) {
+        if (path.length() >= depth) {
+            throw new IllegalArgumentException("The node=" + path + " is a leaf");
+        }
+        String[] childHashes = new String[FANOUT];
+        System.arraycopy(hashes[path.length() + 1], index(path) * FANOUT, childHashes, 0, FANOUT);
+        return childHashes;
+    }
+
+    @Override public SortedMap<String, String> getLeafDigests(String path) {
+        if (path.length() != depth) {
+            throw new IllegalArgumentException("The node=" + path + " is not a leaf");
+        }
+        return Collections.unmodifiableSortedMap(leaves.get(index(path)));
+    }
+
+    /**
+     * Find the jobs whose config differs on the peer, including the jobs only one of the
+     * instances has, descending only into the nodes whose hashes differ.
+     *
+     * @param peer the tree of the peer
+     * @return the sorted names of the differing jobs
+     */
+    public SortedSet<String> diff(MerkleTreeView peer) {
+        if (peer.getDepth() != depth) {
+            throw new IllegalArgumentException(
+                "The depth=" + peer.getDepth() + " of the peer is not " + depth);
+        }
+        SortedSet<String> jobNames = new TreeSet<>();
+        List<String> paths = Collections.singletonList("");
+        for (int level = 0; level < depth && !paths.isEmpty(); level++) {
+            List<String> differing = new ArrayList<>();
+            for (String path : paths) {
+                String[] peerHashes = peer.getChildHashes(path);
+                String[] localHashes = getChildHashes(path);
+                for (int child = 0; child < FANOUT; child++) {
+                    if (!localHashes[child].equals(peerHashes[child])) {
+                        differing.add(path + Integer.toHexString(child));
+                    }
+                }
+            }
+            paths = differing;
+        }
+        for (String path : paths) {
+            SortedMap<String, String> local = getLeafDigests(path);
+            SortedMap<String, String> remote = peer.getLeafDigests(path);
+            for (Map.Entry<String, String> digest : local.entrySet()) {
+                if (!digest.getValue().equals(remote.get(digest.getKey()))) {
+                    jobNames.add(digest.getKey());
+                }
+            }
+            for (String jobName : remote.keySet()) {
+                if (!local.containsKey(jobName)) {
+                    jobNames.add(jobName);
+                }
+            }
+        }
+        return jobNames;
+    }
+
+    private static String hashLeaf(SortedMap<String, String> digests) {
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        for (Map.Entry<String, String> entry : digests.entrySet()) {
+            digest.update((entry.getKey() + "\0" + entry.getValue() + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+        }
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    private static int index(String path) {
+        return path.isEmpty() ? 0 : Integer.parseInt(path, 16);
+    }
+}
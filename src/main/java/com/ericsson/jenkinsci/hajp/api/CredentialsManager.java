@@ -1,6 +1,8 @@
 package com.ericsson.jenkinsci.hajp.api;
 
 
+import com.ericsson.jenkinsci.hajp.api.files.CapturePolicy;
+import com.ericsson.jenkinsci.hajp.api.files.ZipUtil;
 import hudson.lifecycle.RestartNotSupportedException;
 import jenkins.model.Jenkins;
 import lombok.Getter;
@@ -9,12 +11,17 @@ import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.jvnet.hudson.reactor.ReactorException;
-import org.zeroturnaround.zip.ZipUtil;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
 
+import static org.zeroturnaround.zip.ZipUtil.archiveEquals;
+import static org.zeroturnaround.zip.ZipUtil.packEntries;
+import static org.zeroturnaround.zip.ZipUtil.unpackEntry;
+
 /**
  * This class consists of instance methods that will be utilized by HAJP-CORE
  * and features to access and modify internal Jenkins core credentials and secrets/identities
@@ -28,10 +35,10 @@ import java.util.*;
     private File jenkinsLocation;
     private File jenkinsSecretsDir;
     private File secretKeysOutLoc;
-    private File secretDirOutLoc;
     private File jenkinsSecretKeyLoc;
     private File jenkinsNotSoSecretKeyLoc;
     private File jenkinsIdentityKeyLoc;
+    private ZipUtil archiver;
 
     /**
      * Default constructor
@@ -39,8 +46,6 @@ import java.util.*;
     public CredentialsManager(Jenkins jenkins) {
         this.jenkins = jenkins;
         this.jenkinsLocation = jenkins.getRootDir().getAbsoluteFile();
-        this.secretDirOutLoc =
-            new File(Objects.toString(jenkinsLocation + "/" + rand.nextLong()) + ".zip");
         this.secretKeysOutLoc =
             new File(Objects.toString(jenkinsLocation + "/secretkeys-" + rand.nextLong()) + ".zip");
         this.jenkinsSecretsDir = new File(jenkinsLocation.getAbsolutePath() + "/secrets");
@@ -49,6 +54,7 @@ import java.util.*;
             new File(jenkinsLocation.getAbsolutePath() + "/secret.key.not-so-secret");
         this.jenkinsIdentityKeyLoc =
             new File(jenkinsLocation.getAbsolutePath() + "/identity.key.enc");
+        this.archiver = new ZipUtil();
     }
 
     /**
@@ -96,7 +102,7 @@ import java.util.*;
                 new File(Objects.toString(jenkinsLocation + "/" + rand.nextLong() + ".zip"));
             FileUtils.writeByteArrayToFile(tmpFile2, zip2);
 
-            comparison = ZipUtil.archiveEquals(tmpFile1, tmpFile2);
+            comparison = archiveEquals(tmpFile1, tmpFile2);
 
             FileUtils.deleteQuietly(tmpFile1);
             FileUtils.deleteQuietly(tmpFile2);
@@ -129,22 +135,26 @@ import java.util.*;
         fileArray.add(jenkinsSecretKeyLoc);
         fileArray.add(jenkinsNotSoSecretKeyLoc);
         fileArray.add(jenkinsIdentityKeyLoc);
-        ZipUtil.packEntries(fileArray.toArray(fileArr), secretKeysOutLoc);
+        packEntries(fileArray.toArray(fileArr), secretKeysOutLoc);
         returnArr = FileUtils.readFileToByteArray(secretKeysOutLoc);
         FileUtils.deleteQuietly(secretKeysOutLoc);
         return returnArr;
     }
 
     /**
-     * Zip secrets folder on Jenkins home to byte array
+     * Zip secrets folder on Jenkins home to byte array. The zip is deterministic, so unchanged
+     * secrets always give the same bytes and a sync can be skipped by comparing hashes.
      *
      * @return zip as byte array
      */
     public byte[] packSecretsDir() throws IOException {
-        ZipUtil.pack(jenkinsSecretsDir, secretDirOutLoc);
-        byte[] returnArr = FileUtils.readFileToByteArray(secretDirOutLoc);
-        FileUtils.deleteQuietly(secretDirOutLoc);
-        return returnArr;
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try {
+            archiver.zipDeterministic(jenkinsSecretsDir.toPath(), CapturePolicy.FULL, os);
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+        return os.toByteArray();
     }
 
     /**
@@ -178,12 +188,13 @@ import java.util.*;
      * @throws IOException
      */
     public void unpackSecretDir(byte[] compSecretDir) throws IOException {
-        File tmpFile = new File(Objects.toString(jenkinsLocation + "/" + rand.nextLong() + ".zip"));
         File secretDir = new File(jenkinsLocation + "/secrets");
-        FileUtils.writeByteArrayToFile(tmpFile, compSecretDir);
         FileUtils.deleteDirectory(secretDir);
-        ZipUtil.unpack(tmpFile, secretDir);
-        FileUtils.deleteQuietly(tmpFile);
+        try {
+            archiver.unzip(new ByteArrayInputStream(compSecretDir), secretDir.toPath());
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
     }
 
     /**
@@ -195,9 +206,9 @@ import java.util.*;
     public void unpackSecretKeys(byte[] compSecretKeys) throws IOException {
         File tmpFile = new File(Objects.toString(jenkinsLocation + "/" + rand.nextLong() + ".zip"));
         FileUtils.writeByteArrayToFile(tmpFile, compSecretKeys);
-        ZipUtil.unpackEntry(tmpFile, "secret.key", jenkinsSecretKeyLoc);
-        ZipUtil.unpackEntry(tmpFile, "identity.key.enc", jenkinsIdentityKeyLoc);
-        ZipUtil.unpackEntry(tmpFile, "secret.key.not-so-secret", jenkinsNotSoSecretKeyLoc);
+        unpackEntry(tmpFile, "secret.key", jenkinsSecretKeyLoc);
+        unpackEntry(tmpFile, "identity.key.enc", jenkinsIdentityKeyLoc);
+        unpackEntry(tmpFile, "secret.key.not-so-secret", jenkinsNotSoSecretKeyLoc);
         FileUtils.deleteQuietly(tmpFile);
     }
 
@@ -0,0 +1,133 @@
+package com.ericsson.jenkinsci.hajp.api;
+
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.listeners.ItemListener;
+
+import java.util.Collection;
+import java.util.NavigableSet;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * In memory index of the full names of the jobs, sorted so that the jobs sharing a name prefix,
+ * like the jobs of a folder-like naming scheme, are listed without scanning the others.
+ * Lookups are done without walking the items of Jenkins, as {@link
+ * jenkins.model.Jenkins#getJobNames()} does on every call. The index is kept up to date by the
+ * jobs manager and, once registered in Jenkins, by its {@link #getListener() item listener}.
+ */
+public class JobNameIndex {
+
+    private final ConcurrentSkipListSet<String> jobNames = new ConcurrentSkipListSet<>();
+    private final ItemListener listener = new JobNameListener();
+
+    /**
+     * @param jobName the job name
+     * @return true if the job is in the index, false otherwise
+     */
+    public boolean contains(String jobName) {
+        return jobNames.contains(jobName);
+    }
+
+    /**
+     * @param jobName the job name
+     */
+    public void add(String jobName) {
+        jobNames.add(jobName);
+    }
+
+    /**
+     * @param jobName the job name
+     */
+    public void remove(String jobName) {
+        jobNames.remove(jobName);
+    }
+
+    /**
+     * @param oldName the old name
+     * @param newName the new name
+     */
+    public void rename(String oldName, String newName) {
+        jobNames.add(newName);
+        jobNames.remove(oldName);
+    }
+
+    /**
+     * Replace all the names, e.g. once Jenkins has loaded all its jobs.
+     *
+     * @param names the names of all the jobs
+     */
+    public void replaceAll(Collection<String> names) {
+        jobNames.retainAll(names);
+        jobNames.addAll(names);
+    }
+
+    /**
+     * @return a sorted copy of the job names
+     */
+    public SortedSet<String> getJobNames() {
+        return new TreeSet<>(jobNames);
+    }
+
+    /**
+     * @param prefix the name prefix
+     * @return a sorted copy of the names of the jobs starting with the prefix
+     */
+    public SortedSet<String> getJobNames(String prefix) {
+        NavigableSet<String> matching = prefix.isEmpty() ?
+            jobNames :
+            jobNames.subSet(prefix, true, prefix + Character.MAX_VALUE, true);
+        return new TreeSet<>(matching);
+    }
+
+    /**
+     * @return the number of jobs in the index
+     */
+    public int size() {
+        return jobNames.size();
+    }
+
+    /**
+     * @return the listener keeping the index up to date with the jobs created, copied, renamed
+     * and deleted in Jenkins by other means than the jobs manager, to be registered with
+     * <code>ItemListener.all().add(listener)</code>
+     */
+    public ItemListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Item listener updating the index with the full names of the jobs, nested in folders or
+     * not. Folders themselves are not indexed.
+     */
+    private final class JobNameListener extends ItemListener {
+
+        @Override public void onCreated(Item item) {
+            if (item instanceof Job) {
+                add(item.getFullName());
+            }
+        }
+
+        @Override public void onCopied(Item src, Item item) {
+            onCreated(item);
+        }
+
+        @Override public void onDeleted(Item item) {
+            if (item instanceof Job) {
+                remove(item.getFullName());
+            }
+        }
+
+        /**
+         * The names given are the short ones, the item already having the new one.
+         */
+        @Override public void onRenamed(Item item, String oldName, String newName) {
+            if (item instanceof Job) {
+                String parentName = item.getParent().getFullName();
+                rename(parentName.isEmpty() ? oldName : parentName + "/" + oldName,
+                    item.getFullName());
+            }
+        }
+    }
+}
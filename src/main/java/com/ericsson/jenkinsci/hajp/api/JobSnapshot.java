@@ -0,0 +1,111 @@
+package com.ericsson.jenkinsci.hajp.api;
+
+import lombok.Getter;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Data class describing a job as read from its config.xml, without loading its Item.
+ */
+public class JobSnapshot implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final String DISABLED = "disabled";
+
+    @Getter private final String name;
+    /* Root element of config.xml, e.g. "project" for a freestyle job */
+    @Getter private final String type;
+    /* SHA-256 digest of config.xml, in hexadecimal */
+    @Getter private final String configDigest;
+    @Getter private final boolean disabled;
+
+    /**
+     * Constructor.
+     *
+     * @param name         the job name
+     * @param type         the root element of config.xml
+     * @param configDigest the SHA-256 digest of config.xml, in hexadecimal
+     * @param disabled     true if the job is disabled
+     */
+    public JobSnapshot(String name, String type, String configDigest, boolean disabled) {
+        this.name = name;
+        this.type = type;
+        this.configDigest = configDigest;
+        this.disabled = disabled;
+    }
+
+    /**
+     * Snapshot a job from the content of its config.xml, streaming it rather than parsing it
+     * into a document.
+     *
+     * @param name   the job name
+     * @param config the content of config.xml
+     * @return the snapshot of the job
+     */
+    public static JobSnapshot of(String name, byte[] config) {
+        String xml = new String(config, StandardCharsets.UTF_8);
+        return new JobSnapshot(name, rootElement(xml), DigestUtils.sha256Hex(config),
+            isDisabled(config));
+    }
+
+    /**
+     * @return true if the root element has a disabled child set to true, so that the flag of
+     * a nested element, e.g. of a trigger or a builder, is ignored; false if the config is
+     * not well formed
+     */
+    private static boolean isDisabled(byte[] config) {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        try {
+            XMLStreamReader reader =
+                factory.createXMLStreamReader(new ByteArrayInputStream(config));
+            try {
+                int depth = 0;
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        depth++;
+                        if (depth == 2 && DISABLED.equals(reader.getLocalName())) {
+                            return "true".equals(reader.getElementText().trim());
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        depth--;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            // not well formed, the job cannot be loaded anyway
+        }
+        return false;
+    }
+
+    /**
+     * @return the name of the root element, skipping the declaration, the processing
+     * instructions and the comments; empty if there is none
+     */
+    private static String rootElement(String xml) {
+        int start = xml.indexOf('<');
+        while (start >= 0 && start + 1 < xml.length()
+            && (xml.charAt(start + 1) == '?' || xml.charAt(start + 1) == '!')) {
+            start = xml.indexOf('<', start + 1);
+        }
+        if (start < 0) {
+            return "";
+        }
+        int end = start + 1;
+        while (end < xml.length() && !Character.isWhitespace(xml.charAt(end))
+            && xml.charAt(end) != '>' && xml.charAt(end) != '/') {
+            end++;
+        }
+        return xml.substring(start + 1, end);
+    }
+}
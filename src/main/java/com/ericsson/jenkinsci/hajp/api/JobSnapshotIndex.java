@@ -0,0 +1,281 @@
+package com.ericsson.jenkinsci.hajp.api;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent index of the snapshots of the jobs, so that a standby taking over knows its jobs
+ * before any config.xml is parsed. The index is a single append-only file of records, each
+ * one putting or removing the snapshot of a job, which is memory-mapped and replayed once when
+ * opened. A record is framed by its length and CRC, so a record torn by a crash is dropped
+ * with whatever follows it. The file is compacted once the replaced records outnumber the
+ * live ones. Lookups are served from memory without any I/O.
+ */
+@Log4j2 public class JobSnapshotIndex {
+    public static final String INDEX_FILENAME = "hajp-jobs.idx";
+
+    private static final int MAGIC = 0x48414a53;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final int COMPACTION_THRESHOLD = 1024;
+
+    private final Path indexFile;
+    private final Map<String, JobSnapshot> snapshots = new ConcurrentHashMap<>();
+    private FileChannel channel;
+    private long size;
+    private int records;
+
+    /**
+     * Constructor, replaying the index file if it exists.
+     *
+     * @param indexFile the index file
+     * @throws IOException if failed to open or to read the index file
+     */
+    public JobSnapshotIndex(Path indexFile) throws IOException {
+        this.indexFile = indexFile;
+        open();
+    }
+
+    /**
+     * @return the index file
+     */
+    public Path getIndexFile() {
+        return indexFile;
+    }
+
+    /**
+     * @param jobName the job name
+     * @return true if the job is in the index, false otherwise
+     */
+    public boolean contains(String jobName) {
+        return snapshots.containsKey(jobName);
+    }
+
+    /**
+     * @param jobName the job name
+     * @return the snapshot of the job, null if it is not in the index
+     */
+    public JobSnapshot get(String jobName) {
+        return snapshots.get(jobName);
+    }
+
+    /**
+     * @return the sorted names of the jobs in the index
+     */
+    public SortedSet<String> getJobNames() {
+        return new TreeSet<>(snapshots.keySet());
+    }
+
+    /**
+     * @return the snapshots of the jobs in the index
+     */
+    public Collection<JobSnapshot> getSnapshots() {
+        return Collections.unmodifiableCollection(snapshots.values());
+    }
+
+    /**
+     * Add or replace the snapshot of a job.
+     *
+     * @param snapshot the snapshot of the job
+     * @throws IOException if failed to append to the index file
+     */
+    public synchronized void put(JobSnapshot snapshot) throws IOException {
+        append(PUT, snapshot.getName(), snapshot);
+        snapshots.put(snapshot.getName(), snapshot);
+        compactIfNeeded();
+    }
+
+    /**
+     * @param jobName the job name
+     * @throws IOException if failed to append to the index file
+     */
+    public synchronized void remove(String jobName) throws IOException {
+        if (snapshots.containsKey(jobName)) {
+            append(REMOVE, jobName, null);
+            snapshots.remove(jobName);
+            compactIfNeeded();
+        }
+    }
+
+    /**
+     * Replace all the snapshots, e.g. after a scan of the jobs directory, with a compacted
+     * index file.
+     *
+     * @param jobSnapshots the snapshots of all the jobs
+     * @throws IOException if failed to write the index file
+     */
+    public synchronized void replaceAll(Collection<JobSnapshot> jobSnapshots) throws IOException {
+        snapshots.clear();
+        for (JobSnapshot snapshot : jobSnapshots) {
+            snapshots.put(snapshot.getName(), snapshot);
+        }
+        compact();
+    }
+
+    /**
+     * @throws IOException if failed to close the index file
+     */
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private void open() throws IOException {
+        Files.createDirectories(indexFile.toAbsolutePath().getParent());
+        channel = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        long fileSize = channel.size();
+        if (fileSize < HEADER_SIZE) {
+            writeHeader(channel);
+            size = HEADER_SIZE;
+            return;
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("Not a job snapshot index=" + indexFile);
+        }
+        size = replay(buffer);
+        if (size < fileSize) {
+            log.warn("Dropping the torn records past offset=" + size + " of " + indexFile);
+            channel.truncate(size);
+        }
+    }
+
+    /**
+     * @return the offset of the end of the last valid record
+     */
+    private long replay(ByteBuffer buffer) throws IOException {
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                return start;
+            }
+            byte[] payload = new byte[length];
+            buffer.get(payload);
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                return start;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            byte op = in.readByte();
+            String name = in.readUTF();
+            if (op == PUT) {
+                snapshots.put(name,
+                    new JobSnapshot(name, in.readUTF(), in.readUTF(), in.readBoolean()));
+            } else {
+                snapshots.remove(name);
+            }
+            records++;
+        }
+        return buffer.position();
+    }
+
+    private void append(byte op, String name, JobSnapshot snapshot) throws IOException {
+        ByteBuffer record = encode(op, name, snapshot);
+        while (record.hasRemaining()) {
+            size += channel.write(record, size);
+        }
+        records++;
+    }
+
+    private void compactIfNeeded() throws IOException {
+        if (records > COMPACTION_THRESHOLD && records > 2 * snapshots.size()) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrite the live snapshots in a new file, which replaces the index file atomically.
+     */
+    private void compact() throws IOException {
+        Path tmpFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        FileChannel tmpChannel = FileChannel.open(tmpFile, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        long tmpSize;
+        try {
+            writeHeader(tmpChannel);
+            for (JobSnapshot snapshot : snapshots.values()) {
+                ByteBuffer record = encode(PUT, snapshot.getName(), snapshot);
+                while (record.hasRemaining()) {
+                    tmpChannel.write(record);
+                }
+            }
+            tmpChannel.force(true);
+            tmpSize = tmpChannel.size();
+        } finally {
+            tmpChannel.close();
+        }
+        channel.close();
+        boolean moved = false;
+        try {
+            Files.move(tmpFile, indexFile, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        } finally {
+            // reopened whatever happened, on the old file if the move failed, so that the
+            // index keeps working
+            channel =
+                FileChannel.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (moved) {
+                size = tmpSize;
+                records = snapshots.size();
+            } else {
+                Files.deleteIfExists(tmpFile);
+            }
+        }
+    }
+
+    private static void writeHeader(FileChannel fileChannel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        while (header.hasRemaining()) {
+            fileChannel.write(header, header.position());
+        }
+        fileChannel.position(HEADER_SIZE);
+    }
+
+    private static ByteBuffer encode(byte op, String name, JobSnapshot snapshot)
+        throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(op);
+        out.writeUTF(name);
+        if (snapshot != null) {
+            out.writeUTF(snapshot.getType());
+            out.writeUTF(snapshot.getConfigDigest());
+            out.writeBoolean(snapshot.isDisabled());
+        }
+        out.close();
+        byte[] payload = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+        record.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        return record;
+    }
+}
@@ -1,6 +1,8 @@
 package com.ericsson.jenkinsci.hajp.api;
 
 import com.ericsson.jenkins.hajp.api.Messages;
+import com.ericsson.jenkinsci.hajp.api.files.DeltaUtil;
+import com.ericsson.jenkinsci.hajp.api.files.FileSignature;
 import hudson.XmlFile;
 import hudson.model.AbstractItem;
 import hudson.model.AbstractProject;
@@ -9,21 +11,40 @@ import hudson.model.Item;
 import hudson.model.Items;
 import hudson.model.Job;
 import hudson.model.TopLevelItem;
+import hudson.security.ACL;
 import hudson.util.HudsonIsLoading;
 import hudson.util.IOUtils;
 import jenkins.model.Jenkins;
 import lombok.Getter;
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
+import org.apache.commons.io.FileUtils;
 
 import javax.xml.transform.Source;
 import javax.xml.transform.stream.StreamSource;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * This class consists of instance methods that will be utilized by HAJP-CORE
@@ -34,8 +55,16 @@ public class JobsManager {
 
     public static final String ATTRIBUTE_APP = "app";
     public static final String JOBS_DIRNAME = "jobs";
+    public static final String CONFIG_FILENAME = "config.xml";
 
     @Getter private Jenkins jenkins;
+    private DeltaUtil deltaUtil;
+    @Getter private JobSnapshotIndex snapshotIndex;
+    @Getter private boolean lazy;
+    /* Directories of the jobs known but not loaded yet, by job name */
+    private final Map<String, File> pendingJobs = new ConcurrentHashMap<>();
+    private final JobNameIndex jobNameIndex = new JobNameIndex();
+    private volatile boolean jobNamesIndexed;
 
     /**
      * Constructor.
@@ -44,6 +73,59 @@ public class JobsManager {
      */
     public JobsManager(Jenkins jenkins) {
         this.jenkins = jenkins;
+        this.deltaUtil = new DeltaUtil();
+    }
+
+    /**
+     * Keep the snapshots of the jobs in the index as they are created, updated, renamed and
+     * deleted through this manager, and answer the job existence, names and config digests
+     * from it, so that they are known before Jenkins has loaded the jobs.
+     *
+     * @param snapshotIndex the index of the snapshots of the jobs, or null to only rely on
+     *                      the jobs loaded in Jenkins
+     */
+    public void setSnapshotIndex(JobSnapshotIndex snapshotIndex) {
+        this.snapshotIndex = snapshotIndex;
+    }
+
+    /**
+     * In lazy mode, the jobs created or loaded through this manager are only written to, or
+     * found in, the jobs directory. Each one is loaded and registered in Jenkins the first time
+     * it is accessed through this manager, or ahead of time by {@link #warmUpJobs(List)}, so
+     * that a standby does not hold in memory the jobs it never touches before a failover.
+     *
+     * @param lazy true to defer the loading of the jobs until they are accessed
+     */
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+
+    /**
+     * @return the sorted names of the jobs not loaded yet
+     */
+    public SortedSet<String> getPendingJobNames() {
+        return new TreeSet<>(pendingJobs.keySet());
+    }
+
+    /**
+     * Load the pending jobs ahead of their first access, the ones of the priority list first
+     * in its order, then all the others. A job failing to load does not stop the others.
+     *
+     * @param priority the names of the jobs to load first
+     * @return the errors of the jobs which failed to be loaded, by job name
+     */
+    public Map<String, JobManagementException> warmUpJobs(List<String> priority) {
+        Set<String> jobNames = new LinkedHashSet<>(priority);
+        jobNames.addAll(getPendingJobNames());
+        Map<String, JobManagementException> failures = new TreeMap<>();
+        for (String jobName : jobNames) {
+            try {
+                loadPendingJob(jobName);
+            } catch (JobManagementException e) {
+                failures.put(jobName, e);
+            }
+        }
+        return failures;
     }
 
     /**
@@ -60,12 +142,43 @@ public class JobsManager {
         return getJobsDir().toPath().resolve(jobName).toFile();
     }
 
+    /**
+     * @return the index of the job names, seeded from the jobs of Jenkins the first time
+     */
+    public JobNameIndex getJobNameIndex() {
+        if (!jobNamesIndexed) {
+            reindexJobNames();
+        }
+        return jobNameIndex;
+    }
+
+    /**
+     * Seed the index of the job names again from the jobs of Jenkins and the pending jobs,
+     * e.g. once Jenkins has loaded all its jobs.
+     */
+    public synchronized void reindexJobNames() {
+        Set<String> jobNames = new HashSet<>(jenkins.getJobNames());
+        jobNames.addAll(pendingJobs.keySet());
+        jobNameIndex.replaceAll(jobNames);
+        jobNamesIndexed = true;
+    }
+
     /**
      * @param jobName
      * @return true if the job exists, false otherwise
      */
     public boolean jobExists(String jobName) {
-        return getJobNames().contains(jobName);
+        if (getJobNameIndex().contains(jobName)
+            || snapshotIndex != null && snapshotIndex.contains(jobName)) {
+            return true;
+        }
+        // created behind the back of the index, before its listener was registered; only a
+        // job counts, not a folder, and it may be nested in folders
+        if (jenkins.getItemByFullName(jobName, Job.class) != null) {
+            jobNameIndex.add(jobName);
+            return true;
+        }
+        return false;
     }
 
     /**
@@ -76,6 +189,10 @@ public class JobsManager {
     public TopLevelItem getTopLevelItem(String jobName) throws JobManagementException {
         TopLevelItem item = jenkins.getItem(jobName);
         if (item == null) {
+            item = loadPendingJob(jobName);
+        }
+        if (item == null) {
+            jobNameIndex.remove(jobName);
             throw new JobManagementException(Messages.jobs_find_not_found(jobName), jobName);
         }
         return item;
@@ -128,10 +245,88 @@ public class JobsManager {
     }
 
     /**
-     * @return the collection of jobs in Jenkins
+     * @return the sorted collection of jobs in Jenkins, including the pending jobs and the
+     * jobs of the snapshot index not loaded yet
      */
     public Collection<String> getJobNames() {
-        return jenkins.getJobNames();
+        return getJobNames("");
+    }
+
+    /**
+     * @param prefix the name prefix, e.g. the folder-like part of the job names
+     * @return the sorted collection of jobs starting with the prefix, including the pending
+     * jobs and the jobs of the snapshot index not loaded yet
+     */
+    public SortedSet<String> getJobNames(String prefix) {
+        SortedSet<String> jobNames = getJobNameIndex().getJobNames(prefix);
+        if (snapshotIndex != null) {
+            for (String jobName : snapshotIndex.getJobNames()) {
+                if (jobName.startsWith(prefix)) {
+                    jobNames.add(jobName);
+                }
+            }
+        }
+        return jobNames;
+    }
+
+    /**
+     * The digest is always taken from the config.xml as it is now, since the job may have been
+     * changed from the UI, the REST API or on disk without the snapshot index knowing it. A
+     * stale snapshot is refreshed on the way.
+     *
+     * @param jobName the job name
+     * @return the SHA-256 digest of the config.xml of the job, in hexadecimal
+     * @throws JobManagementException if failed to read the config.xml file
+     */
+    public String getJobConfigDigest(String jobName) throws JobManagementException {
+        try {
+            JobSnapshot live = JobSnapshot.of(jobName, Files.readAllBytes(getConfigFile(jobName)));
+            JobSnapshot snapshot = snapshotIndex == null ? null : snapshotIndex.get(jobName);
+            if (snapshot != null && !snapshot.getConfigDigest().equals(live.getConfigDigest())) {
+                snapshotIndex.put(live);
+            }
+            return live.getConfigDigest();
+        } catch (IOException e) {
+            throw new JobManagementException(Messages.jobs_read_content_error(jobName), e,
+                jobName);
+        }
+    }
+
+    /**
+     * Snapshot all the jobs of the jobs directory into the snapshot index, replacing whatever
+     * it held, e.g. to seed the index of an instance which did not keep one so far.
+     *
+     * @return the errors of the jobs which failed to be snapshot, by job directory name
+     * @throws JobManagementException if there is no snapshot index, or failed to list the
+     *                                jobs or to write the index
+     */
+    public Map<String, JobManagementException> snapshotAllJobs() throws JobManagementException {
+        if (snapshotIndex == null) {
+            throw new JobManagementException(Messages.jobs_snapshot_error());
+        }
+        File[] files = getJobsDir().listFiles();
+        if (files == null) {
+            throw new JobManagementException(Messages.jobs_dir_null());
+        }
+        List<JobSnapshot> snapshots = new ArrayList<>();
+        Map<String, JobManagementException> failures = new TreeMap<>();
+        for (File f : files) {
+            Path configFile = getConfigFile(f.getName());
+            if (Files.isRegularFile(configFile)) {
+                try {
+                    snapshots.add(JobSnapshot.of(f.getName(), Files.readAllBytes(configFile)));
+                } catch (IOException e) {
+                    failures.put(f.getName(), new JobManagementException(
+                        Messages.jobs_read_content_error(f.getName()), e, f.getName()));
+                }
+            }
+        }
+        try {
+            snapshotIndex.replaceAll(snapshots);
+        } catch (IOException e) {
+            throw new JobManagementException(Messages.jobs_snapshot_error(), e, e.getMessage());
+        }
+        return failures;
     }
 
     /**
@@ -160,14 +355,71 @@ public class JobsManager {
         return jobsMap;
     }
 
+    /**
+     * @return the config digests of all the jobs, by job name
+     * @throws JobManagementException if failed to read the config.xml file of a job
+     * @see #getJobConfigDigest(String)
+     */
+    public Map<String, String> getJobConfigDigests() throws JobManagementException {
+        Map<String, String> digests = new HashMap<>();
+        for (String jobName : getJobNames()) {
+            digests.put(jobName, getJobConfigDigest(jobName));
+        }
+        return digests;
+    }
+
+    /**
+     * Build the Merkle tree of the config digests of all the jobs, so that a peer finds the
+     * jobs whose config differs with {@link ConfigMerkleTree#diff(MerkleTreeView)}, then only
+     * fetches those with {@link #getJobsXmlAsMap(Collection)}, instead of comparing the
+     * configs of all the jobs.
+     *
+     * @return the Merkle tree of the config digests, of {@link ConfigMerkleTree#DEFAULT_DEPTH}
+     * @throws JobManagementException if failed to read the config.xml file of a job
+     */
+    public ConfigMerkleTree getJobConfigTree() throws JobManagementException {
+        return new ConfigMerkleTree(getJobConfigDigests(), ConfigMerkleTree.DEFAULT_DEPTH);
+    }
+
+    /**
+     * @param jobNames the names of the jobs
+     * @return the xml of the jobs as a Map, read from their config.xml files without loading
+     * them; a job without config.xml is left out
+     * @throws JobManagementException if failed to read the config.xml file of a job
+     */
+    public Map<String, String> getJobsXmlAsMap(Collection<String> jobNames)
+        throws JobManagementException {
+        Map<String, String> jobsMap = new HashMap<>();
+        for (String jobName : jobNames) {
+            Path configFile = getConfigFile(jobName);
+            if (!Files.isRegularFile(configFile)) {
+                continue;
+            }
+            try {
+                jobsMap.put(jobName,
+                    new String(Files.readAllBytes(configFile), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new JobManagementException(Messages.jobs_read_content_error(jobName), e,
+                    jobName);
+            }
+        }
+        return jobsMap;
+    }
+
     /**
      * @param jobName        the job name
      * @param xmlFileContent the xml file content
      * @throws JobManagementException if failed to create the job from the xml content
      */
     public void createJob(String jobName, String xmlFileContent) throws JobManagementException {
+        if (lazy) {
+            createPendingJob(jobName, xmlFileContent);
+            return;
+        }
         try {
             jenkins.createProjectFromXML(jobName, IOUtils.toInputStream(xmlFileContent));
+            jobNameIndex.add(jobName);
+            snapshotJob(jobName, getConfigFile(jobName));
         } catch (IOException e) {
             throw new JobManagementException(Messages.jobs_create_from_xml_error(jobName), e,
                 jobName, xmlFileContent);
@@ -184,16 +436,87 @@ public class JobsManager {
     public void updateJobConfig(String jobName, String xmlFileContent)
         throws JobManagementException {
         try {
+            if (pendingJobs.containsKey(jobName)) {
+                Files.write(getConfigFile(jobName), xmlFileContent.getBytes());
+                snapshotJob(jobName, getConfigFile(jobName));
+                return;
+            }
             AbstractProject project = getAbstractProject(jobName);
             Path configFile = project.getConfigFile().getFile().toPath();
             Files.write(configFile, xmlFileContent.getBytes());
             project.doReload();
+            snapshotJob(jobName, configFile);
         } catch (IOException e) {
             throw new JobManagementException(Messages.jobs_update_failed(jobName, xmlFileContent),
                 e, jobName, xmlFileContent);
         }
     }
 
+    /**
+     * Compute the signature of the config.xml file of the job, so that the sender can reply
+     * with a delta of it.
+     *
+     * @param jobName the job name
+     * @return the signature of the local config.xml file
+     * @throws JobManagementException if failed to read the config.xml file
+     */
+    public FileSignature getJobConfigSignature(String jobName) throws JobManagementException {
+        TopLevelItem item = getTopLevelItem(jobName);
+        try {
+            return deltaUtil.signature(Items.getConfigFile(item).getFile().toPath());
+        } catch (IOException e) {
+            throw new JobManagementException(Messages.jobs_config_delta_error(jobName), e,
+                jobName);
+        }
+    }
+
+    /**
+     * Write the delta between the config.xml file of the job and the copy described by the
+     * signature to the output stream. The stream is left open.
+     *
+     * @param jobName   the job name
+     * @param signature the signature of the receiver copy of the config.xml file
+     * @param os        the output stream the delta is written to
+     * @throws JobManagementException if failed to compute the delta
+     */
+    public void grabJobConfigDelta(String jobName, FileSignature signature, OutputStream os)
+        throws JobManagementException {
+        TopLevelItem item = getTopLevelItem(jobName);
+        try {
+            deltaUtil.delta(Items.getConfigFile(item).getFile().toPath(), signature, os);
+        } catch (IOException e) {
+            throw new JobManagementException(Messages.jobs_config_delta_error(jobName), e,
+                jobName);
+        }
+    }
+
+    /**
+     * Update a job by rebuilding its config.xml file from the local copy and the delta read
+     * from the input stream, then reload it.
+     *
+     * @param jobName     the job name
+     * @param configDelta the input stream the delta is read from
+     * @throws JobManagementException if failed to update the job item
+     */
+    public void updateJobConfig(String jobName, InputStream configDelta)
+        throws JobManagementException {
+        try {
+            if (pendingJobs.containsKey(jobName)) {
+                deltaUtil.patch(getConfigFile(jobName), configDelta);
+                snapshotJob(jobName, getConfigFile(jobName));
+                return;
+            }
+            AbstractProject project = getAbstractProject(jobName);
+            Path configFile = project.getConfigFile().getFile().toPath();
+            deltaUtil.patch(configFile, configDelta);
+            project.doReload();
+            snapshotJob(jobName, configFile);
+        } catch (IOException e) {
+            throw new JobManagementException(Messages.jobs_config_delta_error(jobName), e,
+                jobName);
+        }
+    }
+
     /**
      * @param oldName the old name
      * @param newName the new name
@@ -203,6 +526,13 @@ public class JobsManager {
         Job<?, ?> job = getJob(oldName);
         try {
             job.renameTo(newName);
+            jobNameIndex.rename(oldName, newName);
+            JobSnapshot snapshot = snapshotIndex == null ? null : snapshotIndex.get(oldName);
+            if (snapshot != null) {
+                snapshotIndex.remove(oldName);
+                snapshotIndex.put(new JobSnapshot(newName, snapshot.getType(),
+                    snapshot.getConfigDigest(), snapshot.isDisabled()));
+            }
         } catch (IOException e) {
             throw new JobManagementException(Messages.jobs_rename_failed(oldName, newName), e,
                 oldName, newName);
@@ -214,12 +544,30 @@ public class JobsManager {
      * @throws JobManagementException if failed to delete the job item
      */
     public void deleteJob(String jobName) throws JobManagementException {
+        File pendingJobDir = pendingJobs.remove(jobName);
+        if (pendingJobDir != null) {
+            try {
+                jobNameIndex.remove(jobName);
+                FileUtils.deleteDirectory(pendingJobDir);
+                if (snapshotIndex != null) {
+                    snapshotIndex.remove(jobName);
+                }
+            } catch (IOException e) {
+                throw new JobManagementException(Messages.jobs_load_from_filesystem_error(), e,
+                    e.getMessage());
+            }
+            return;
+        }
         TopLevelItem item = jenkins.getItem(jobName);
         if (item == null) {
             throw new JobManagementException(Messages.jobs_find_not_found(jobName), jobName);
         }
         try {
             item.delete();
+            jobNameIndex.remove(jobName);
+            if (snapshotIndex != null) {
+                snapshotIndex.remove(jobName);
+            }
         } catch (IOException | InterruptedException e) {
             throw new JobManagementException(Messages.jobs_load_from_filesystem_error(), e,
                 e.getMessage());
@@ -244,25 +592,164 @@ public class JobsManager {
     }
 
     /**
-     * Load all jobs from the jenkins home dir.
+     * Write the config.xml of a new job without loading it, and register it as pending.
+     */
+    private void createPendingJob(String jobName, String xmlFileContent)
+        throws JobManagementException {
+        if (jobExists(jobName)) {
+            throw new JobManagementException(Messages.jobs_already_exists(jobName), jobName);
+        }
+        try {
+            Path configFile = getConfigFile(jobName);
+            Files.createDirectories(configFile.getParent());
+            Files.write(configFile, xmlFileContent.getBytes());
+            snapshotJob(jobName, configFile);
+            pendingJobs.put(jobName, getJobDir(jobName));
+            jobNameIndex.add(jobName);
+        } catch (IOException e) {
+            throw new JobManagementException(Messages.jobs_create_from_xml_error(jobName), e,
+                jobName, xmlFileContent);
+        }
+    }
+
+    /**
+     * Load a pending job and register it in Jenkins, once whoever asks for it first.
      *
-     * @throws JobManagementException if failed to load any job in Jenkins
+     * @return the loaded job, null if the job is not pending
+     */
+    private synchronized TopLevelItem loadPendingJob(String jobName)
+        throws JobManagementException {
+        File jobDir = pendingJobs.get(jobName);
+        if (jobDir == null) {
+            return jenkins.getItem(jobName);
+        }
+        try {
+            TopLevelItem item = (TopLevelItem) Items.load(jenkins, jobDir);
+            jenkins.putItem(item);
+            pendingJobs.remove(jobName);
+            return item;
+        } catch (IOException | InterruptedException e) {
+            throw new JobManagementException(Messages.jobs_load_error(jobName), e, jobName);
+        }
+    }
+
+    /**
+     * The config.xml of a loaded job is in its root dir, which for a job nested in folders is
+     * under the jobs dir of each folder; the one of a job not loaded yet is in its job dir.
+     */
+    private Path getConfigFile(String jobName) {
+        Job job = jenkins.getItemByFullName(jobName, Job.class);
+        File jobDir = job != null ? job.getRootDir() : getJobDir(jobName);
+        return jobDir.toPath().resolve(CONFIG_FILENAME);
+    }
+
+    /**
+     * Snapshot the job from its config.xml as written, which Jenkins may have serialized
+     * differently from the xml it was given, so that digests match those of snapshotAllJobs.
+     */
+    private void snapshotJob(String jobName, Path configFile) throws IOException {
+        if (snapshotIndex != null) {
+            snapshotIndex.put(JobSnapshot.of(jobName, Files.readAllBytes(configFile)));
+        }
+    }
+
+    /**
+     * Load all jobs from the jenkins home dir, in parallel on all the processors.
+     *
+     * @throws JobManagementException if failed to load any job in Jenkins, once all the others
+     *                                are loaded
+     * @see #loadAllJobs(int, boolean)
      */
     public void loadAllJobs() throws JobManagementException {
-        jenkins.servletContext.setAttribute(ATTRIBUTE_APP, new HudsonIsLoading());
-        File jobsDir = getJobsDir();
-        File[] files = jobsDir.listFiles();
+        Map<String, JobManagementException> failures =
+            loadAllJobs(Runtime.getRuntime().availableProcessors(), false);
+        if (!failures.isEmpty()) {
+            JobManagementException failure = failures.values().iterator().next();
+            throw new JobManagementException(Messages.jobs_load_all_error(), failure,
+                failure.getMessage());
+        }
+    }
+
+    /**
+     * Load all jobs from the jenkins home dir in parallel on a pool bounded by the parallelism.
+     * A job failing to load does not stop the others. Jenkins shows it is loading until all
+     * the jobs are loaded, unless the load is progressive: each job is then registered in
+     * Jenkins as soon as it is loaded, so that Jenkins is available again straight away with
+     * the jobs loaded so far, skipping the jobs already registered. In lazy mode, the jobs are
+     * only registered as pending.
+     *
+     * @param parallelism the maximum number of jobs loaded at the same time
+     * @param progressive true to register each job as soon as it is loaded
+     * @return the errors of the jobs which failed to be loaded, by job directory name
+     * @throws JobManagementException if failed to list the jobs or interrupted
+     */
+    public Map<String, JobManagementException> loadAllJobs(int parallelism,
+        final boolean progressive) throws JobManagementException {
+        File[] files = getJobsDir().listFiles();
         if (files == null) {
             throw new JobManagementException(Messages.jobs_dir_null());
         }
-        try {
+        if (lazy) {
             for (File f : files) {
-                TopLevelItem item = (TopLevelItem) Items.load(jenkins, f);
+                if (jenkins.getItem(f.getName()) == null
+                    && Files.isRegularFile(getConfigFile(f.getName()))) {
+                    pendingJobs.put(f.getName(), f);
+                    jobNameIndex.add(f.getName());
+                }
             }
-        } catch (IOException e) {
+            return new TreeMap<>();
+        }
+        jenkins.servletContext.setAttribute(ATTRIBUTE_APP,
+            progressive ? jenkins : new HudsonIsLoading());
+
+        Map<String, Future<TopLevelItem>> futures = new TreeMap<>();
+        Map<String, JobManagementException> failures = new TreeMap<>();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            for (final File f : files) {
+                futures.put(f.getName(), pool.submit(new Callable<TopLevelItem>() {
+                    @Override public TopLevelItem call() throws Exception {
+                        if (!progressive) {
+                            return (TopLevelItem) Items.load(jenkins, f);
+                        }
+                        // registering it again would delete the directory of the job
+                        TopLevelItem item = jenkins.getItem(f.getName());
+                        if (item != null) {
+                            return item;
+                        }
+                        item = (TopLevelItem) Items.load(jenkins, f);
+                        if (item != null) {
+                            // the pool threads do not carry the security context of the caller
+                            SecurityContext securityContext = ACL.impersonate(ACL.SYSTEM);
+                            try {
+                                jenkins.putItem(item);
+                            } finally {
+                                SecurityContextHolder.setContext(securityContext);
+                            }
+                            jobNameIndex.add(f.getName());
+                        }
+                        return item;
+                    }
+                }));
+            }
+            for (Map.Entry<String, Future<TopLevelItem>> future : futures.entrySet()) {
+                String jobName = future.getKey();
+                try {
+                    future.getValue().get();
+                } catch (ExecutionException e) {
+                    failures.put(jobName,
+                        new JobManagementException(Messages.jobs_load_error(jobName),
+                            e.getCause(), jobName));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new JobManagementException(Messages.jobs_load_all_error(), e, e.getMessage());
+        } finally {
+            pool.shutdownNow();
+            jenkins.servletContext.setAttribute(ATTRIBUTE_APP, jenkins);
         }
-        jenkins.servletContext.setAttribute(ATTRIBUTE_APP, jenkins);
+        return failures;
     }
 
     /**
@@ -273,7 +760,7 @@ public class JobsManager {
     public void deleteAllJobs() throws JobManagementException {
         jenkins.servletContext.setAttribute(ATTRIBUTE_APP, new HudsonIsLoading());
 
-        for (String jobName : getJobNames()) {
+        for (String jobName : getJobNameIndex().getJobNames()) {
             deleteJob(jobName);
         }
 
@@ -0,0 +1,322 @@
+package com.ericsson.jenkinsci.hajp.api;
+
+import com.ericsson.jenkinsci.hajp.api.files.BuildManifest;
+import com.ericsson.jenkinsci.hajp.api.files.TransferUtil;
+import com.ericsson.jenkinsci.hajp.api.files.ZipUtil;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.BuildListener;
+import hudson.model.Run;
+import jenkins.model.ArtifactManager;
+import jenkins.model.StandardArtifactManager;
+import jenkins.util.VirtualFile;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Artifact manager of a build imported with a placeholder manifest of its artifacts instead of
+ * the artifacts themselves. Each artifact is fetched from the peer the first time it is
+ * opened, then served from the archive directory like the standard artifact manager does.
+ * It is set on the build through its build.xml, so the only state kept there is the class
+ * name; the manifest is stored next to build.xml and the fetcher is shared by all builds.
+ */
+@Log4j2 public class LazyArtifactManager extends ArtifactManager {
+    public static final String ARTIFACTS_MANIFEST = "artifacts.manifest";
+
+    private static volatile ArtifactFetcher fetcher;
+
+    private transient Run<?, ?> build;
+    private transient BuildManifest manifest;
+
+    /**
+     * @param artifactFetcher the fetcher of the artifacts of all lazy builds
+     */
+    public static void setFetcher(ArtifactFetcher artifactFetcher) {
+        fetcher = artifactFetcher;
+    }
+
+    /**
+     * Store the placeholder manifest of the artifacts in the build directory.
+     *
+     * @param buildDir  the build directory
+     * @param artifacts the manifest of the archive directory of the build on the peer
+     * @throws IOException if failed to write the manifest
+     */
+    public static void saveManifest(Path buildDir, BuildManifest artifacts) throws IOException {
+        ObjectOutputStream oos =
+            new ObjectOutputStream(Files.newOutputStream(buildDir.resolve(ARTIFACTS_MANIFEST)));
+        try {
+            oos.writeObject(artifacts);
+        } finally {
+            oos.close();
+        }
+    }
+
+    @Override public void onLoad(Run<?, ?> build) {
+        this.build = build;
+    }
+
+    @Override public void archive(FilePath workspace, Launcher launcher, BuildListener listener,
+        Map<String, String> artifacts) throws IOException, InterruptedException {
+        new StandardArtifactManager(build).archive(workspace, launcher, listener, artifacts);
+    }
+
+    @Override public boolean delete() throws IOException, InterruptedException {
+        File archiveDir = getArchiveDir();
+        File manifestFile = new File(build.getRootDir(), ARTIFACTS_MANIFEST);
+        if (!archiveDir.exists() && !manifestFile.exists()) {
+            return false;
+        }
+        FileUtils.deleteDirectory(archiveDir);
+        Files.deleteIfExists(manifestFile.toPath());
+        return true;
+    }
+
+    @Override public VirtualFile root() {
+        return new ArtifactFile(this, "");
+    }
+
+    /**
+     * @return the manifest of the artifacts of the build, empty if there is none
+     * @throws IOException if failed to read the manifest
+     */
+    public synchronized BuildManifest getManifest() throws IOException {
+        if (manifest == null) {
+            File manifestFile = new File(build.getRootDir(), ARTIFACTS_MANIFEST);
+            if (!manifestFile.isFile()) {
+                manifest = new BuildManifest();
+            } else {
+                ObjectInputStream ois = new ObjectInputStream(new FileInputStream(manifestFile));
+                try {
+                    manifest = (BuildManifest) ois.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException(e);
+                } finally {
+                    ois.close();
+                }
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Get the local copy of an artifact, fetching it first if it is only in the manifest. The
+     * content is checked against the manifest hash before it shows up in the archive directory.
+     * The download runs outside the lock of the manager, so a slow artifact does not hold up
+     * the others of the build.
+     *
+     * @param relativePath the path of the artifact, relative to the archive directory
+     * @return the local file of the artifact
+     * @throws IOException if failed to fetch the artifact, or if the path is outside the
+     *                     archive directory
+     */
+    public File fetch(String relativePath) throws IOException {
+        // the path comes from the request, so it must not escape the archive directory
+        File file = ZipUtil.resolveEntry(getArchiveDir().toPath(), relativePath).toFile();
+        BuildManifest.Entry entry;
+        synchronized (this) {
+            entry = getManifest().getEntries().get(relativePath);
+            if (entry == null || file.isFile()) {
+                return file;
+            }
+        }
+        ArtifactFetcher artifactFetcher = fetcher;
+        if (artifactFetcher == null) {
+            throw new IOException("No fetcher set to fetch the artifact=" + relativePath);
+        }
+        String jobName = build.getParent().getName();
+        log.debug("Fetching the artifact=" + relativePath + " of build=" + build.getNumber()
+            + " of job=" + jobName);
+        Files.createDirectories(file.getParentFile().toPath());
+        Path tmpFile = Files.createTempFile(file.getParentFile().toPath(), ".fetch-", ".tmp");
+        try {
+            InputStream is = artifactFetcher.fetch(jobName, build.getNumber(), relativePath);
+            try {
+                TransferUtil.copy(is, tmpFile);
+            } finally {
+                is.close();
+            }
+            if (!entry.getHash().equals(sha256(tmpFile))) {
+                throw new IOException("The fetched artifact=" + relativePath
+                    + " does not match its manifest");
+            }
+            synchronized (this) {
+                // a concurrent fetch of the same artifact may have completed meanwhile
+                if (!file.isFile()) {
+                    Files.move(tmpFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+        return file;
+    }
+
+    private File getArchiveDir() {
+        return new File(build.getRootDir(), ZipUtil.ARCHIVE_FILENAME);
+    }
+
+    private static String sha256(Path file) throws IOException {
+        InputStream is = Files.newInputStream(file);
+        try {
+            return DigestUtils.sha256Hex(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Artifact, or directory of artifacts, seen through the manifest and the local copies.
+     */
+    private static final class ArtifactFile extends VirtualFile {
+        private final transient LazyArtifactManager manager;
+        private final String relativePath;
+
+        ArtifactFile(LazyArtifactManager manager, String relativePath) {
+            this.manager = manager;
+            this.relativePath = relativePath;
+        }
+
+        @Override public String getName() {
+            return relativePath.isEmpty() ?
+                ZipUtil.ARCHIVE_FILENAME :
+                relativePath.substring(relativePath.lastIndexOf('/') + 1);
+        }
+
+        @Override public URI toURI() {
+            return getLocalFile().toURI();
+        }
+
+        @Override public VirtualFile getParent() {
+            if (relativePath.isEmpty()) {
+                return VirtualFile.forFile(manager.build.getRootDir());
+            }
+            int index = relativePath.lastIndexOf('/');
+            return new ArtifactFile(manager, index < 0 ? "" : relativePath.substring(0, index));
+        }
+
+        @Override public boolean isDirectory() throws IOException {
+            if (relativePath.isEmpty() || getLocalFile().isDirectory()) {
+                return true;
+            }
+            String prefix = relativePath + "/";
+            for (String path : manager.getManifest().getEntries().keySet()) {
+                if (path.startsWith(prefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override public boolean isFile() throws IOException {
+            return getManifestEntry() != null || getLocalFile().isFile();
+        }
+
+        @Override public boolean exists() throws IOException {
+            return isFile() || isDirectory();
+        }
+
+        @Override public VirtualFile[] list() throws IOException {
+            SortedSet<String> names = new TreeSet<>();
+            String prefix = relativePath.isEmpty() ? "" : relativePath + "/";
+            for (String path : manager.getManifest().getEntries().keySet()) {
+                if (path.startsWith(prefix)) {
+                    String name = path.substring(prefix.length());
+                    int index = name.indexOf('/');
+                    names.add(index < 0 ? name : name.substring(0, index));
+                }
+            }
+            String[] localNames = getLocalFile().list();
+            if (localNames != null) {
+                for (String name : localNames) {
+                    if (!name.startsWith(".fetch-")) {
+                        names.add(name);
+                    }
+                }
+            }
+            List<VirtualFile> children = new ArrayList<>();
+            for (String name : names) {
+                children.add(child(name));
+            }
+            return children.toArray(new VirtualFile[children.size()]);
+        }
+
+        /**
+         * The glob is matched with {@link java.nio.file.FileSystem#getPathMatcher}, a leading
+         * <code>**&#47;</code> also matching the top level as Ant patterns do.
+         */
+        @Override public String[] list(String glob) throws IOException {
+            List<PathMatcher> matchers = new ArrayList<>();
+            matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+            if (glob.startsWith("**/")) {
+                matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob.substring(3)));
+            }
+            String prefix = relativePath.isEmpty() ? "" : relativePath + "/";
+            List<String> paths = new ArrayList<>();
+            for (String path : manager.getManifest().getEntries().keySet()) {
+                if (path.startsWith(prefix)) {
+                    String childPath = path.substring(prefix.length());
+                    for (PathMatcher matcher : matchers) {
+                        if (matcher.matches(Paths.get(childPath))) {
+                            paths.add(childPath);
+                            break;
+                        }
+                    }
+                }
+            }
+            return paths.toArray(new String[paths.size()]);
+        }
+
+        @Override public VirtualFile child(String name) {
+            return new ArtifactFile(manager,
+                relativePath.isEmpty() ? name : relativePath + "/" + name);
+        }
+
+        @Override public long length() throws IOException {
+            BuildManifest.Entry entry = getManifestEntry();
+            return entry != null ? entry.getSize() : getLocalFile().length();
+        }
+
+        @Override public long lastModified() throws IOException {
+            BuildManifest.Entry entry = getManifestEntry();
+            return entry != null ? entry.getLastModified() : getLocalFile().lastModified();
+        }
+
+        @Override public boolean canRead() throws IOException {
+            return exists();
+        }
+
+        @Override public InputStream open() throws IOException {
+            return new FileInputStream(manager.fetch(relativePath));
+        }
+
+        private BuildManifest.Entry getManifestEntry() throws IOException {
+            return manager.getManifest().getEntries().get(relativePath);
+        }
+
+        private File getLocalFile() {
+            return new File(manager.getArchiveDir(), relativePath);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.ericsson.jenkinsci.hajp.api;
+
+import java.util.SortedMap;
+
+/**
+ * Nodes of a Merkle tree of job config digests as seen by a peer, typically answered remotely
+ * by the {@link ConfigMerkleTree} of the other instance. A node is identified by its path,
+ * the hexadecimal prefix shared by the SHA-256 hashes of the names of the jobs under it; the
+ * root path is empty.
+ */
+public interface MerkleTreeView {
+
+    /**
+     * @return the number of hexadecimal digits of the paths of the leaves
+     */
+    int getDepth();
+
+    /**
+     * @param path the path of an inner node
+     * @return the hashes of the children of the node, in the order of their last digit
+     */
+    String[] getChildHashes(String path);
+
+    /**
+     * @param path the path of a leaf
+     * @return the config digests of the jobs of the leaf, by job name
+     */
+    SortedMap<String, String> getLeafDigests(String path);
+}
@@ -0,0 +1,11 @@
+package com.ericsson.jenkinsci.hajp.api.files;
+
+/**
+ * Format of the archives builds are transferred with.
+ */
+public enum ArchiveFormat {
+    /* Zip archive, see ZipUtil */
+    ZIP,
+    /* Tar archive produced and consumed in one pass, keeping links, times and modes, see TarUtil */
+    TAR
+}
@@ -0,0 +1,69 @@
+package com.ericsson.jenkinsci.hajp.api.files;
+
+import lombok.Getter;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of reusable copy buffers, so the hot copy paths of the archives do not allocate a new
+ * buffer per entry or per call. The buffers are byte arrays because the deflaters and inflaters
+ * of Java 7 only work on arrays. A buffer is taken with {@link #acquire()} and must be given back
+ * with {@link #release(byte[])} once the copy is done; at most {@link #getMaxPooled()} buffers
+ * are kept, the others are left to the garbage collector.
+ */
+public class BufferPool {
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    public static final int DEFAULT_MAX_POOLED = 64;
+
+    /* Pool shared by the archive utilities */
+    public static final BufferPool SHARED = new BufferPool(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED);
+
+    @Getter private final int bufferSize;
+    @Getter private final int maxPooled;
+
+    private final ConcurrentLinkedQueue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    /**
+     * @param bufferSize the size of the buffers in bytes
+     * @param maxPooled  the maximum number of buffers kept for reuse
+     */
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * @return a pooled buffer, or a new one if none is free
+     */
+    public byte[] acquire() {
+        byte[] buffer = buffers.poll();
+        if (buffer == null) {
+            return new byte[bufferSize];
+        }
+        pooled.decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * @param buffer the buffer taken from this pool, not to be used anymore by the caller
+     */
+    public void release(byte[] buffer) {
+        if (buffer.length != bufferSize) {
+            return;
+        }
+        if (pooled.incrementAndGet() <= maxPooled) {
+            buffers.offer(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return the number of buffers free in the pool
+     */
+    public int getPooled() {
+        return pooled.get();
+    }
+}
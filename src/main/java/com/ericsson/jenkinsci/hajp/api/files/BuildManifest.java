@@ -0,0 +1,187 @@
+package com.ericsson.jenkinsci.hajp.api.files;
+
+import lombok.Getter;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Data class describing every file of a build directory by its relative path, size, last
+ * modification time and content hash. Comparing manifests tells which files have to be
+ * transferred to bring a replica up to date.
+ */
+public class BuildManifest implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /* Entries keyed by path relative to the build directory, using '/' as separator */
+    @Getter private final Map<String, Entry> entries = new TreeMap<>();
+
+    /**
+     * Compute the manifest of all files under the directory, skipping the archive directory
+     * the same way the zip archives do.
+     *
+     * @param dir the build directory
+     * @return the manifest of the directory
+     * @throws IOException if failed to walk the directory or to hash a file
+     */
+    public static BuildManifest of(final Path dir) throws IOException {
+        return of(dir, CapturePolicy.DEFAULT);
+    }
+
+    /**
+     * Compute the manifest of the files under the directory captured by the policy.
+     *
+     * @param dir    the build directory
+     * @param policy the policy selecting the files
+     * @return the manifest of the directory
+     * @throws IOException if failed to walk the directory or to hash a file
+     */
+    public static BuildManifest of(final Path dir, final CapturePolicy policy)
+        throws IOException {
+        return of(dir, policy, null);
+    }
+
+    /**
+     * Compute the manifest of the files under the directory captured by the policy, only to be
+     * compared with the reference manifest. A file the reference has not, or has with another
+     * size, is different whatever its content, so it is not hashed and its hash is null.
+     *
+     * @param dir       the build directory
+     * @param policy    the policy selecting the files
+     * @param reference the manifest this one is to be compared with, null to hash all files
+     * @return the manifest of the directory
+     * @throws IOException if failed to walk the directory or to hash a file
+     */
+    public static BuildManifest of(final Path dir, final CapturePolicy policy,
+        final BuildManifest reference) throws IOException {
+        final Map<String, Entry> referenceEntries =
+            reference == null ? null : reference.entries;
+        final BuildManifest manifest = new BuildManifest();
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override public FileVisitResult preVisitDirectory(Path subDir,
+                BasicFileAttributes attrs) throws IOException {
+                if (!subDir.equals(dir) && !policy.acceptsDirectory(relativePath(dir, subDir))) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                throws IOException {
+                String path = relativePath(dir, file);
+                if (attrs.isRegularFile() && policy.acceptsFile(path, attrs.size())) {
+                    Entry referenceEntry =
+                        referenceEntries == null ? null : referenceEntries.get(path);
+                    boolean comparable = referenceEntries == null
+                        || referenceEntry != null && referenceEntry.getSize() == attrs.size();
+                    manifest.entries.put(path, new Entry(path, attrs.size(),
+                        attrs.lastModifiedTime().toMillis(), comparable ? hash(file) : null));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return manifest;
+    }
+
+    /**
+     * Files are compared by size and content hash only, as modification times are not kept
+     * when a build is extracted on a replica.
+     *
+     * @param other the manifest to compare with, typically received from a replica
+     * @return the relative paths of files which are missing or different in the other manifest
+     */
+    public SortedSet<String> diff(BuildManifest other) {
+        SortedSet<String> paths = new TreeSet<>();
+        Map<String, Entry> otherEntries =
+            other == null ? Collections.<String, Entry>emptyMap() : other.entries;
+        for (Entry entry : entries.values()) {
+            if (!entry.sameContentAs(otherEntries.get(entry.getPath()))) {
+                paths.add(entry.getPath());
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * @param other the manifest to compare with, typically received from a replica
+     * @return the relative paths of files of the other manifest which are not in this one
+     */
+    public SortedSet<String> removed(BuildManifest other) {
+        SortedSet<String> paths = new TreeSet<>();
+        if (other != null) {
+            for (String path : other.entries.keySet()) {
+                if (!entries.containsKey(path)) {
+                    paths.add(path);
+                }
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * @param dir  the root directory
+     * @param file the file under the root directory
+     * @return the path of the file relative to the root directory, using '/' as separator
+     */
+    public static String relativePath(Path dir, Path file) {
+        return dir.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    private static String hash(Path file) throws IOException {
+        InputStream is = Files.newInputStream(file);
+        try {
+            return DigestUtils.sha256Hex(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * A file of the build directory.
+     */
+    @Getter public static class Entry implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private final String hash;
+
+        /**
+         * Constructor.
+         *
+         * @param path         the path relative to the build directory
+         * @param size         the file size in bytes
+         * @param lastModified the last modification time in milliseconds
+         * @param hash         the SHA-256 hash of the file content, null if it was not hashed
+         */
+        public Entry(String path, long size, long lastModified, String hash) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+
+        /**
+         * @param other the other entry
+         * @return true if the other entry has the same size and hash, false otherwise
+         */
+        public boolean sameContentAs(Entry other) {
+            return other != null && size == other.size && hash != null
+                && hash.equals(other.hash);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.ericsson.jenkinsci.hajp.api.files;
+
+import lombok.Getter;
+
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Policy deciding which files of a build directory are captured in a build archive. Paths are
+ * matched relative to the build directory with {@link java.nio.file.FileSystem#getPathMatcher}
+ * glob patterns. A file is captured if it matches one of the includes, or if there are none,
+ * matches none of the excludes and is not bigger than the maximum file size. A directory
+ * matching one of the excludes is skipped with all its content.
+ */
+public class CapturePolicy {
+    public static final long UNLIMITED_SIZE = -1;
+
+    /* Everything under the build directory */
+    public static final CapturePolicy FULL =
+        new CapturePolicy(Collections.<String>emptyList(), Collections.<String>emptyList(),
+            UNLIMITED_SIZE);
+
+    /* Everything but the archived artifacts, which is how builds have always been grabbed */
+    public static final CapturePolicy DEFAULT =
+        new CapturePolicy(Collections.<String>emptyList(),
+            Collections.singletonList("{" + ZipUtil.ARCHIVE_FILENAME + ",**/"
+                + ZipUtil.ARCHIVE_FILENAME + "}"), UNLIMITED_SIZE);
+
+    /* Only the build record and the change log, enough to replicate the build history */
+    public static final CapturePolicy METADATA_ONLY =
+        new CapturePolicy(Arrays.asList("build.xml", "changelog.xml"),
+            Collections.<String>emptyList(), UNLIMITED_SIZE);
+
+    @Getter private final List<String> includes;
+    @Getter private final List<String> excludes;
+    @Getter private final long maxFileSize;
+
+    private final List<PathMatcher> includeMatchers;
+    private final List<PathMatcher> excludeMatchers;
+
+    /**
+     * @param includes    the glob patterns of the files to capture, all files if empty
+     * @param excludes    the glob patterns of the files and directories to leave out
+     * @param maxFileSize the size in bytes above which a file is left out, or
+     *                    {@link #UNLIMITED_SIZE}
+     */
+    public CapturePolicy(Collection<String> includes, Collection<String> excludes,
+        long maxFileSize) {
+        this.includes = Collections.unmodifiableList(new ArrayList<>(includes));
+        this.excludes = Collections.unmodifiableList(new ArrayList<>(excludes));
+        this.maxFileSize = maxFileSize;
+        this.includeMatchers = matchers(includes);
+        this.excludeMatchers = matchers(excludes);
+    }
+
+    /**
+     * @return true if every file of the build directory is captured
+     */
+    public boolean isFull() {
+        return includes.isEmpty() && excludes.isEmpty() && maxFileSize == UNLIMITED_SIZE;
+    }
+
+    /**
+     * @return true if directory entries are captured, that is when no include narrows the
+     * capture down to some files
+     */
+    public boolean capturesDirectories() {
+        return includes.isEmpty();
+    }
+
+    /**
+     * @param relativePath the path of the directory, relative to the build directory
+     * @return true if the content of the directory may be captured
+     */
+    public boolean acceptsDirectory(String relativePath) {
+        return !matches(excludeMatchers, relativePath);
+    }
+
+    /**
+     * @param relativePath the path of the file, relative to the build directory
+     * @param size         the size of the file in bytes
+     * @return true if the file is captured
+     */
+    public boolean acceptsFile(String relativePath, long size) {
+        if (maxFileSize != UNLIMITED_SIZE && size > maxFileSize) {
+            return false;
+        }
+        if (!includeMatchers.isEmpty() && !matches(includeMatchers, relativePath)) {
+            return false;
+        }
+        return !matches(excludeMatchers, relativePath);
+    }
+
+    private static List<PathMatcher> matchers(Collection<String> globs) {
+        List<PathMatcher> matchers = new ArrayList<>();
+        for (String glob : globs) {
+            matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+        }
+        return matchers;
+    }
+
+    private static boolean matches(List<PathMatcher> matchers, String relativePath) {
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(Paths.get(relativePath))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,139 @@
+package com.ericsson.jenkinsci.hajp.api.files;
+
+import lombok.Getter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Policy choosing how each entry of a zip archive is compressed. Files which are already
+ * compressed are stored as is, either because of their extension or because the entropy of
+ * their first bytes is close to the maximum. Text files, starting with the build log, may be
+ * deflated at another level than the other files. Subclasses may override
+ * {@link #getMethod(File)} and {@link #getLevel(File)} to plug in other rules.
+ */
+public class CompressionPolicy {
+    public static final Set<String> COMPRESSED_EXTENSIONS = Collections.unmodifiableSet(
+        new HashSet<>(Arrays.asList("gz", "tgz", "bz2", "xz", "zip", "jar", "war", "ear", "hpi",
+            "jpi", "apk", "png", "jpg", "jpeg", "gif", "mp4", "7z", "rpm", "deb")));
+    public static final Set<String> TEXT_EXTENSIONS = Collections.unmodifiableSet(
+        new HashSet<>(Arrays.asList("log", "txt", "xml", "html", "json", "csv", "properties")));
+
+    /* Size of the head of a file whose entropy is sampled */
+    public static final int SAMPLE_SIZE = 1024;
+    /* Entropy in bits per byte above which the sampled file is considered incompressible */
+    public static final double INCOMPRESSIBLE_ENTROPY = 7.5;
+
+    /* Known compressed files are stored, all others deflated at the default level */
+    public static final CompressionPolicy DEFAULT =
+        new CompressionPolicy(COMPRESSED_EXTENSIONS, true, Deflater.DEFAULT_COMPRESSION,
+            Deflater.DEFAULT_COMPRESSION);
+
+    /* Every file is deflated at the default level, which is how builds have always been zipped */
+    public static final CompressionPolicy DEFLATE_ALL =
+        new CompressionPolicy(Collections.<String>emptySet(), false,
+            Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_COMPRESSION);
+
+    /* Every file is stored, e.g. when the whole archive is compressed by a stream codec */
+    public static final CompressionPolicy STORE_ALL =
+        new CompressionPolicy(Collections.<String>emptySet(), false, Deflater.NO_COMPRESSION,
+            Deflater.NO_COMPRESSION);
+
+    @Getter private final Set<String> storedExtensions;
+    @Getter private final boolean sampleEntropy;
+    @Getter private final int deflateLevel;
+    @Getter private final int textDeflateLevel;
+
+    /**
+     * @param storedExtensions the lower case extensions of the files stored as is
+     * @param sampleEntropy    true to also store files whose first bytes look random
+     * @param deflateLevel     the deflate level of the files, {@link Deflater#NO_COMPRESSION}
+     *                         to store them all
+     * @param textDeflateLevel the deflate level of the build log and the text files
+     */
+    public CompressionPolicy(Collection<String> storedExtensions, boolean sampleEntropy,
+        int deflateLevel, int textDeflateLevel) {
+        this.storedExtensions = Collections.unmodifiableSet(new HashSet<>(storedExtensions));
+        this.sampleEntropy = sampleEntropy;
+        this.deflateLevel = deflateLevel;
+        this.textDeflateLevel = textDeflateLevel;
+    }
+
+    /**
+     * @param file the file of the entry
+     * @return {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}
+     * @throws IOException if failed to sample the file
+     */
+    public int getMethod(File file) throws IOException {
+        if (getLevel(file) == Deflater.NO_COMPRESSION) {
+            return ZipEntry.STORED;
+        }
+        if (storedExtensions.contains(getExtension(file))) {
+            return ZipEntry.STORED;
+        }
+        if (sampleEntropy && !isText(file) && sampleEntropy(file) > INCOMPRESSIBLE_ENTROPY) {
+            return ZipEntry.STORED;
+        }
+        return ZipEntry.DEFLATED;
+    }
+
+    /**
+     * @param file the file of the entry
+     * @return the deflate level of the entry
+     */
+    public int getLevel(File file) {
+        return isText(file) ? textDeflateLevel : deflateLevel;
+    }
+
+    /**
+     * @param file the file
+     * @return the Shannon entropy in bits per byte of the first {@link #SAMPLE_SIZE} bytes
+     * @throws IOException if failed to read the file
+     */
+    public static double sampleEntropy(File file) throws IOException {
+        byte[] sample = new byte[SAMPLE_SIZE];
+        int length = 0;
+        InputStream is = new FileInputStream(file);
+        try {
+            int read;
+            while (length < sample.length
+                && (read = is.read(sample, length, sample.length - length)) > 0) {
+                length += read;
+            }
+        } finally {
+            is.close();
+        }
+        int[] counts = new int[256];
+        for (int i = 0; i < length; i++) {
+            counts[sample[i] & 0xff]++;
+        }
+        double entropy = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                double p = (double) count / length;
+                entropy -= p * Math.log(p) / Math.log(2);
+            }
+        }
+        return entropy;
+    }
+
+    private static boolean isText(File file) {
+        return file.getName().equals("log") || TEXT_EXTENSIONS.contains(getExtension(file));
+    }
+
+    private static String getExtension(File file) {
+        String name = file.getName();
+        int index = name.lastIndexOf('.');
+        return index < 0 ? "" : name.substring(index + 1).toLowerCase(Locale.ENGLISH);
+    }
+}
@@ -0,0 +1,365 @@
+package com.ericsson.jenkinsci.hajp.api.files;
+
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class consists of instance methods to synchronize a file by sending only the parts of it
+ * which the receiver does not already have, the same way rsync does:
+ * <lu>1. the receiver computes the signature of its copy of the file.</lu>
+ * <lu>2. the sender scans its file with a rolling checksum and writes a delta made of block copy
+ * and literal insert instructions.</lu>
+ * <lu>3. the receiver rebuilds the file from its copy and the delta.</lu>
+ */
+public class DeltaUtil {
+    public static final int MIN_BLOCK_SIZE = 512;
+    public static final int MAX_BLOCK_SIZE = 128 * 1024;
+
+    private static final String STRONG_ALGORITHM = "MD5";
+    private static final int MAX_LITERAL_SIZE = 64 * 1024;
+    private static final byte OP_COPY = 'C';
+    private static final byte OP_INSERT = 'I';
+    private static final byte OP_END = 'E';
+
+    /**
+     * Compute the signature of the file, with a block size chosen from the file length. A
+     * missing file has an empty signature, so that the delta will carry the whole source file.
+     *
+     * @param file the receiver copy of the file
+     * @return the signature of the file
+     * @throws IOException if failed to read the file
+     */
+    public FileSignature signature(final Path file) throws IOException {
+        long length = Files.exists(file) ? Files.size(file) : 0;
+        return signature(file, blockSizeFor(length));
+    }
+
+    /**
+     * Compute the signature of the file.
+     *
+     * @param file      the receiver copy of the file
+     * @param blockSize the block size
+     * @return the signature of the file
+     * @throws IOException if failed to read the file
+     */
+    public FileSignature signature(final Path file, final int blockSize) throws IOException {
+        if (!Files.exists(file)) {
+            return new FileSignature(blockSize, 0, new int[0], new byte[0][]);
+        }
+        final MessageDigest digest = newDigest();
+        final List<Integer> weak = new ArrayList<>();
+        final List<byte[]> strong = new ArrayList<>();
+        final byte[] block = new byte[blockSize];
+        long length = 0;
+        final InputStream is = Files.newInputStream(file);
+        try {
+            int n = readFully(is, block);
+            while (n > 0) {
+                weak.add(checksum(block, n));
+                digest.update(block, 0, n);
+                strong.add(digest.digest());
+                length += n;
+                n = readFully(is, block);
+            }
+        } finally {
+            is.close();
+        }
+        int[] weakChecksums = new int[weak.size()];
+        for (int i = 0; i < weakChecksums.length; i++) {
+            weakChecksums[i] = weak.get(i);
+        }
+        return new FileSignature(blockSize, length, weakChecksums,
+            strong.toArray(new byte[strong.size()][]));
+    }
+
+    /**
+     * Scan the source file against the receiver signature and write the delta to the output
+     * stream. The source file is read once with a window of one block, so memory use does not
+     * depend on the file size. The stream is left open.
+     *
+     * @param source    the sender copy of the file
+     * @param signature the signature of the receiver copy
+     * @param os        the output stream the delta is written to
+     * @throws IOException if failed to read the file or to write the delta
+     */
+    public void delta(final Path source, final FileSignature signature, final OutputStream os)
+        throws IOException {
+        final DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(new CloseShieldOutputStream(os)));
+        final BlockTable blocks = new BlockTable(signature.getWeakChecksums());
+        final MessageDigest digest = newDigest();
+        final int blockSize = signature.getBlockSize();
+        final ByteArrayOutputStream literal = new ByteArrayOutputStream();
+        final InputStream is = new BufferedInputStream(Files.newInputStream(source));
+        try {
+            out.writeInt(blockSize);
+            // the window is a ring buffer of the last blockSize bytes read
+            final byte[] window = new byte[blockSize];
+            int start = 0;
+            int n = readFully(is, window);
+            int[] sums = sums(window, 0, n);
+            // consecutive matching blocks are sent as a single copy instruction
+            int[] run = {-1, 0};
+            while (n > 0) {
+                int match = findBlock(signature, blocks, combine(sums), window, start, n, digest);
+                if (match >= 0) {
+                    writeLiteral(out, literal);
+                    if (run[1] > 0 && run[0] + run[1] == match) {
+                        run[1]++;
+                    } else {
+                        writeCopy(out, run);
+                        run[0] = match;
+                        run[1] = 1;
+                    }
+                    start = 0;
+                    n = readFully(is, window);
+                    sums = sums(window, 0, n);
+                    continue;
+                }
+                int oldest = window[start] & 0xff;
+                writeCopy(out, run);
+                literal.write(oldest);
+                if (literal.size() >= MAX_LITERAL_SIZE) {
+                    writeLiteral(out, literal);
+                }
+                int next = n == blockSize ? is.read() : -1;
+                if (next == -1) {
+                    // end of file reached, shrink the window
+                    sums[0] = (sums[0] - oldest) & 0xffff;
+                    sums[1] = (sums[1] - n * oldest) & 0xffff;
+                    n--;
+                } else {
+                    window[start] = (byte) next;
+                    sums[0] = (sums[0] - oldest + next) & 0xffff;
+                    sums[1] = (sums[1] - n * oldest + sums[0]) & 0xffff;
+                }
+                start = (start + 1) % blockSize;
+            }
+            writeCopy(out, run);
+            writeLiteral(out, literal);
+            out.writeByte(OP_END);
+            out.flush();
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Rebuild the file from the receiver copy and the delta read from the input stream. The new
+     * content is written to a temporary file which then replaces the receiver copy.
+     *
+     * @param basis the receiver copy of the file, which is replaced
+     * @param is    the input stream the delta is read from
+     * @throws IOException if failed to read the delta or to write the file
+     */
+    public void patch(final Path basis, final InputStream is) throws IOException {
+        final DataInputStream in =
+            new DataInputStream(new BufferedInputStream(new CloseShieldInputStream(is)));
+        final int blockSize = in.readInt();
+        final long basisLength = Files.exists(basis) ? Files.size(basis) : 0;
+        final Path target = Files.createTempFile(basis.toAbsolutePath().getParent(),
+            "." + basis.getFileName(), ".delta");
+        try {
+            final OutputStream out = Files.newOutputStream(target);
+            final FileChannel basisChannel = Files.exists(basis) ?
+                FileChannel.open(basis, StandardOpenOption.READ) : null;
+            try {
+                final byte[] buffer = new byte[Math.max(blockSize, MAX_LITERAL_SIZE)];
+                byte op = in.readByte();
+                while (op != OP_END) {
+                    if (op == OP_COPY) {
+                        int index = in.readInt();
+                        int count = in.readInt();
+                        for (int i = index; i < index + count; i++) {
+                            copyBlock(basisChannel, blockSize, basisLength, i, buffer, out);
+                        }
+                    } else if (op == OP_INSERT) {
+                        int length = in.readInt();
+                        if (length < 0 || length > buffer.length) {
+                            throw new IOException("Invalid delta literal length: " + length);
+                        }
+                        in.readFully(buffer, 0, length);
+                        out.write(buffer, 0, length);
+                    } else {
+                        throw new IOException("Unknown delta instruction: " + op);
+                    }
+                    op = in.readByte();
+                }
+            } finally {
+                out.close();
+                if (basisChannel != null) {
+                    basisChannel.close();
+                }
+            }
+            Files.move(target, basis, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(target);
+        }
+    }
+
+    /**
+     * @param length the file length
+     * @return a block size close to the square root of the length, within bounds
+     */
+    public static int blockSizeFor(long length) {
+        long blockSize = (long) Math.sqrt(length);
+        return (int) Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, blockSize));
+    }
+
+    private void copyBlock(FileChannel basisChannel, int blockSize, long basisLength, int index,
+        byte[] buffer, OutputStream out) throws IOException {
+        if (basisChannel == null) {
+            throw new IOException("No basis file to copy block " + index + " from");
+        }
+        long position = (long) index * blockSize;
+        int length = (int) Math.min(blockSize, basisLength - position);
+        if (length <= 0) {
+            throw new IOException("Block " + index + " is out of the basis file");
+        }
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, length);
+        while (byteBuffer.hasRemaining()) {
+            if (basisChannel.read(byteBuffer, position + byteBuffer.position()) < 0) {
+                throw new EOFException("Basis file is shorter than expected");
+            }
+        }
+        out.write(buffer, 0, length);
+    }
+
+    private void writeCopy(DataOutputStream out, int[] run) throws IOException {
+        if (run[1] > 0) {
+            out.writeByte(OP_COPY);
+            out.writeInt(run[0]);
+            out.writeInt(run[1]);
+            run[1] = 0;
+        }
+    }
+
+    private void writeLiteral(DataOutputStream out, ByteArrayOutputStream literal)
+        throws IOException {
+        if (literal.size() > 0) {
+            out.writeByte(OP_INSERT);
+            out.writeInt(literal.size());
+            literal.writeTo(out);
+            literal.reset();
+        }
+    }
+
+    private int findBlock(FileSignature signature, BlockTable blocks, int weak, byte[] window,
+        int start, int n, MessageDigest digest) {
+        byte[] strong = null;
+        for (int index = blocks.first(weak); index >= 0; index = blocks.next(index)) {
+            if (signature.getWeakChecksums()[index] != weak
+                || signature.getBlockLength(index) != n) {
+                continue;
+            }
+            if (strong == null) {
+                int firstPart = Math.min(n, window.length - start);
+                digest.update(window, start, firstPart);
+                digest.update(window, 0, n - firstPart);
+                strong = digest.digest();
+            }
+            if (Arrays.equals(strong, signature.getStrongChecksums()[index])) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private static int checksum(byte[] block, int n) {
+        return combine(sums(block, 0, n));
+    }
+
+    private static int[] sums(byte[] block, int offset, int n) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < n; i++) {
+            int x = block[offset + i] & 0xff;
+            a += x;
+            b += (n - i) * x;
+        }
+        return new int[] {a & 0xffff, b & 0xffff};
+    }
+
+    private static int combine(int[] sums) {
+        return (sums[1] << 16) | sums[0];
+    }
+
+    private static int readFully(InputStream is, byte[] buffer) throws IOException {
+        int n = 0;
+        while (n < buffer.length) {
+            int read = is.read(buffer, n, buffer.length - n);
+            if (read < 0) {
+                break;
+            }
+            n += read;
+        }
+        return n;
+    }
+
+    /**
+     * Chained hash table of the block indexes by weak checksum, held in primitive arrays so that
+     * looking up the rolling checksum at every byte offset does not allocate.
+     */
+    private static class BlockTable {
+        private final int mask;
+        /* First block index of each bucket, -1 if empty */
+        private final int[] heads;
+        /* Next block index in the same bucket, -1 at the end */
+        private final int[] chain;
+
+        BlockTable(int[] weakChecksums) {
+            int capacity = Integer.highestOneBit(Math.max(1, weakChecksums.length)) << 1;
+            mask = capacity - 1;
+            heads = new int[capacity];
+            Arrays.fill(heads, -1);
+            chain = new int[weakChecksums.length];
+            // filled backwards so that each bucket lists the blocks in file order
+            for (int i = weakChecksums.length - 1; i >= 0; i--) {
+                int bucket = spread(weakChecksums[i]) & mask;
+                chain[i] = heads[bucket];
+                heads[bucket] = i;
+            }
+        }
+
+        int first(int weak) {
+            return heads[spread(weak) & mask];
+        }
+
+        int next(int index) {
+            return chain[index];
+        }
+
+        private static int spread(int weak) {
+            return weak ^ (weak >>> 16);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(STRONG_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.ericsson.jenkinsci.hajp.api.files;
+
+import lombok.Getter;
+
+import java.io.Serializable;
+
+/**
+ * Data class holding the block checksums of a file as computed by the receiver of a delta
+ * transfer. Every block but the last one is blockSize long.
+ */
+public class FileSignature implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    @Getter private final int blockSize;
+    @Getter private final long length;
+    /* Rolling checksum of each block */
+    @Getter private final int[] weakChecksums;
+    /* MD5 digest of each block */
+    @Getter private final byte[][] strongChecksums;
+
+    /**
+     * Constructor.
+     *
+     * @param blockSize       the block size
+     * @param length          the length of the file
+     * @param weakChecksums   the rolling checksum of each block
+     * @param strongChecksums the MD5 digest of each block
+     */
+    public FileSignature(int blockSize, long length, int[] weakChecksums,
+        byte[][] strongChecksums) {
+        this.blockSize = blockSize;
+        this.length = length;
+        this.weakChecksums = weakChecksums;
+        this.strongChecksums = strongChecksums;
+    }
+
+    /**
+     * @return the number of blocks
+     */
+    public int getBlockCount() {
+        return weakChecksums.length;
+    }
+
+    /**
+     * @param index the block index
+     * @return the length of the block
+     */
+    public int getBlockLength(int index) {
+        return (int) Math.min(blockSize, length - (long) index * blockSize);
+    }
+}
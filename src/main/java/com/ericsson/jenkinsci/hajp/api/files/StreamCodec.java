@@ -0,0 +1,57 @@
+package com.ericsson.jenkinsci.hajp.api.files;
+
+import org.apache.commons.compress.compressors.CompressorException;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Codec compressing a whole archive stream, on top of or instead of the per entry compression
+ * of the archive format.
+ */
+public enum StreamCodec {
+    NONE(null),
+    GZIP(CompressorStreamFactory.GZIP),
+    BZIP2(CompressorStreamFactory.BZIP2),
+    XZ(CompressorStreamFactory.XZ);
+
+    private final String compressorName;
+
+    StreamCodec(String compressorName) {
+        this.compressorName = compressorName;
+    }
+
+    /**
+     * @param os the output stream the compressed stream is written to
+     * @return the output stream to write to, which must be closed to complete the stream
+     * @throws IOException if failed to create the compressor
+     */
+    public OutputStream compress(OutputStream os) throws IOException {
+        if (compressorName == null) {
+            return os;
+        }
+        try {
+            return new CompressorStreamFactory().createCompressorOutputStream(compressorName, os);
+        } catch (CompressorException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * @param is the input stream the compressed stream is read from
+     * @return the input stream to read from
+     * @throws IOException if failed to create the decompressor
+     */
+    public InputStream decompress(InputStream is) throws IOException {
+        if (compressorName == null) {
+            return is;
+        }
+        try {
+            return new CompressorStreamFactory().createCompressorInputStream(compressorName, is);
+        } catch (CompressorException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.ericsson.jenkinsci.hajp.api.files;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class consists of instance methods to tar and untar directories. Unlike zip archives, a
+ * tar archive has no central directory, so it is written and read strictly in one pass and
+ * can be extracted while it is still being produced. Symbolic links, permissions and
+ * modification times, to the second, are preserved, and entries are always named with '/'
+ * separators.
+ */
+public class TarUtil {
+    public static final String TAR_SUFFIX = ".tar";
+
+    private static final int TYPE_FILE = 0100000;
+    private static final int TYPE_DIR = 040000;
+    private static final int TYPE_SYMLINK = 0120000;
+    private static final int DEFAULT_FILE_MODE = 0644;
+    private static final int DEFAULT_DIR_MODE = 0755;
+    private static final int PERMISSIONS_MASK = 07777;
+
+    /* Permissions in the order of the bits of a mode, from 0400 to 0001 */
+    private static final PosixFilePermission[] PERMISSIONS = {
+        PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE,
+        PosixFilePermission.OWNER_EXECUTE, PosixFilePermission.GROUP_READ,
+        PosixFilePermission.GROUP_WRITE, PosixFilePermission.GROUP_EXECUTE,
+        PosixFilePermission.OTHERS_READ, PosixFilePermission.OTHERS_WRITE,
+        PosixFilePermission.OTHERS_EXECUTE};
+
+    /**
+     * Tar the files under the directory captured by the policy straight into the output
+     * stream. The archive is completed but the stream is left open.
+     * @param srcDir the parent directory of files to be archived
+     * @param policy the policy selecting the files to be archived
+     * @param os the output stream the tar archive is written to
+     * @throws IOException if failed to archive files
+     */
+    public void tar(final Path srcDir, final CapturePolicy policy, final OutputStream os)
+        throws IOException {
+        final TarArchiveOutputStream tos =
+            new TarArchiveOutputStream(new BufferedOutputStream(new CloseShieldOutputStream(os)));
+        tos.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+        tos.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+        try {
+            Files.walkFileTree(srcDir, new SimpleFileVisitor<Path>() {
+                @Override public FileVisitResult preVisitDirectory(Path dir,
+                    BasicFileAttributes attrs) throws IOException {
+                    if (dir.equals(srcDir)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    String relativePath = BuildManifest.relativePath(srcDir, dir);
+                    if (!policy.acceptsDirectory(relativePath)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    if (policy.capturesDirectories()) {
+                        TarArchiveEntry entry = new TarArchiveEntry(relativePath + "/");
+                        entry.setMode(TYPE_DIR | getMode(dir, DEFAULT_DIR_MODE));
+                        entry.setModTime(attrs.lastModifiedTime().toMillis());
+                        tos.putArchiveEntry(entry);
+                        tos.closeArchiveEntry();
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                    throws IOException {
+                    String relativePath = BuildManifest.relativePath(srcDir, file);
+                    if (attrs.isSymbolicLink() && policy.acceptsFile(relativePath, 0)) {
+                        TarArchiveEntry entry =
+                            new TarArchiveEntry(relativePath, TarConstants.LF_SYMLINK);
+                        entry.setLinkName(Files.readSymbolicLink(file).toString());
+                        entry.setMode(TYPE_SYMLINK | 0777);
+                        entry.setModTime(attrs.lastModifiedTime().toMillis());
+                        tos.putArchiveEntry(entry);
+                        tos.closeArchiveEntry();
+                    } else if (attrs.isRegularFile()
+                        && policy.acceptsFile(relativePath, attrs.size())) {
+                        TarArchiveEntry entry = new TarArchiveEntry(relativePath);
+                        entry.setMode(TYPE_FILE | getMode(file, DEFAULT_FILE_MODE));
+                        entry.setModTime(attrs.lastModifiedTime().toMillis());
+                        entry.setSize(attrs.size());
+                        tos.putArchiveEntry(entry);
+                        TransferUtil.copy(file, tos);
+                        tos.closeArchiveEntry();
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } finally {
+            tos.close();
+        }
+    }
+
+    /**
+     * Tar the files under the directory captured by the policy, and compress the whole tar
+     * archive with the codec straight into the output stream. The stream is left open.
+     * @param srcDir the parent directory of files to be archived
+     * @param policy the policy selecting the files to be archived
+     * @param codec the codec compressing the whole archive
+     * @param os the output stream the compressed tar archive is written to
+     * @throws IOException if failed to archive files
+     */
+    public void tar(final Path srcDir, final CapturePolicy policy, final StreamCodec codec,
+        final OutputStream os) throws IOException {
+        final OutputStream cos = codec.compress(new CloseShieldOutputStream(os));
+        try {
+            tar(srcDir, policy, cos);
+        } finally {
+            cos.close();
+        }
+    }
+
+    /**
+     * Untar files as they are read from the input stream and store them in the specified
+     * directory, restoring their symbolic links, modification times and permissions. Entries
+     * outside the directory, links pointing outside of it and entries under a link are refused.
+     * The stream is left open.
+     * @param is the input stream the tar archive is read from
+     * @param destDir the destination directory
+     * @throws IOException if failed to untar files
+     */
+    public void untar(final InputStream is, final Path destDir) throws IOException {
+        Files.createDirectories(destDir);
+        final Path root = destDir.toAbsolutePath().normalize();
+        // directory times are restored last, as creating their content changes them
+        final Map<Path, TarArchiveEntry> dirs = new LinkedHashMap<>();
+        final TarArchiveInputStream tis = new TarArchiveInputStream(
+            new BufferedInputStream(new CloseShieldInputStream(is)));
+        try {
+            TarArchiveEntry entry = tis.getNextTarEntry();
+            while (entry != null) {
+                Path target = ZipUtil.resolveEntry(root, entry.getName());
+                checkNoLinkAbove(root, target, destDir);
+                if (entry.isDirectory()) {
+                    if (Files.isSymbolicLink(target)) {
+                        throw new IOException("The entry=" + entry.getName()
+                            + " is a symbolic link in " + destDir);
+                    }
+                    Files.createDirectories(target);
+                    dirs.put(target, entry);
+                } else if (entry.isSymbolicLink()) {
+                    Path link = Paths.get(entry.getLinkName());
+                    if (!target.getParent().resolve(link).normalize().startsWith(root)) {
+                        throw new IOException("The link=" + entry.getName() + " -> "
+                            + entry.getLinkName() + " is outside " + destDir);
+                    }
+                    Files.createDirectories(target.getParent());
+                    Files.deleteIfExists(target);
+                    Files.createSymbolicLink(target, link);
+                } else {
+                    Files.createDirectories(target.getParent());
+                    // the file replaces a link rather than being written through it
+                    if (Files.isSymbolicLink(target)) {
+                        Files.delete(target);
+                    }
+                    TransferUtil.copy(tis, target);
+                    setAttributes(target, entry);
+                }
+                entry = tis.getNextTarEntry();
+            }
+        } finally {
+            tis.close();
+        }
+        for (Map.Entry<Path, TarArchiveEntry> dir : dirs.entrySet()) {
+            // a later entry may have replaced the directory by a link
+            if (!Files.isSymbolicLink(dir.getKey())) {
+                setAttributes(dir.getKey(), dir.getValue());
+            }
+        }
+    }
+
+    /**
+     * Untar files as they are decompressed by the codec from the input stream. The stream is
+     * left open.
+     * @param is the input stream the compressed tar archive is read from
+     * @param codec the codec the whole archive is compressed with
+     * @param destDir the destination directory
+     * @throws IOException if failed to untar files
+     */
+    public void untar(final InputStream is, final StreamCodec codec, final Path destDir)
+        throws IOException {
+        final InputStream cis = codec.decompress(new CloseShieldInputStream(is));
+        try {
+            untar(cis, destDir);
+        } finally {
+            cis.close();
+        }
+    }
+
+    /**
+     * Refuse an entry under a symbolic link of the tree, which could lead anywhere, whether the
+     * link was extracted from the archive or was already there.
+     */
+    private static void checkNoLinkAbove(Path root, Path target, Path destDir)
+        throws IOException {
+        for (Path dir = target.getParent(); dir.startsWith(root) && !dir.equals(root);
+             dir = dir.getParent()) {
+            if (Files.isSymbolicLink(dir)) {
+                throw new IOException("The entry=" + root.relativize(target)
+                    + " is under the symbolic link=" + root.relativize(dir) + " in " + destDir);
+            }
+        }
+    }
+
+    private void setAttributes(Path path, TarArchiveEntry entry) throws IOException {
+        PosixFileAttributeView view = Files
+            .getFileAttributeView(path, PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
+        if (view != null) {
+            view.setPermissions(toPermissions(entry.getMode() & PERMISSIONS_MASK));
+        }
+        Files.setLastModifiedTime(path, FileTime.fromMillis(entry.getModTime().getTime()));
+    }
+
+    private static int getMode(Path path, int defaultMode) throws IOException {
+        PosixFileAttributeView view = Files
+            .getFileAttributeView(path, PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
+        if (view == null) {
+            return defaultMode;
+        }
+        Set<PosixFilePermission> permissions = view.readAttributes().permissions();
+        int mode = 0;
+        for (int i = 0; i < PERMISSIONS.length; i++) {
+            if (permissions.contains(PERMISSIONS[i])) {
+                mode |= 0400 >> i;
+            }
+        }
+        return mode;
+    }
+
+    private static Set<PosixFilePermission> toPermissions(int mode) {
+        Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+        for (int i = 0; i < PERMISSIONS.length; i++) {
+            if ((mode & (0400 >> i)) != 0) {
+                permissions.add(PERMISSIONS[i]);
+            }
+        }
+        return permissions;
+    }
+}
@@ -0,0 +1,159 @@
+package com.ericsson.jenkinsci.hajp.api.files;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Utility class copying files and streams without allocating per call. Whenever both ends
+ * are channels, a file is shipped with {@link FileChannel#transferTo} or
+ * {@link FileChannel#transferFrom}, which the kernel may carry out without copying the bytes
+ * through the heap at all; otherwise the bytes go through a buffer of the
+ * {@link BufferPool#SHARED} pool.
+ */
+public class TransferUtil {
+
+    /**
+     * Copy the stream into the other one through a pooled buffer. Neither stream is closed.
+     *
+     * @param in  the input stream
+     * @param out the output stream
+     * @return the number of bytes copied
+     * @throws IOException if failed to copy
+     */
+    public static long copy(InputStream in, OutputStream out) throws IOException {
+        if (in instanceof FileInputStream && out instanceof FileOutputStream) {
+            return transfer(((FileInputStream) in).getChannel(),
+                ((FileOutputStream) out).getChannel());
+        }
+        byte[] buffer = BufferPool.SHARED.acquire();
+        try {
+            long count = 0;
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, n);
+                count += n;
+            }
+            return count;
+        } finally {
+            BufferPool.SHARED.release(buffer);
+        }
+    }
+
+    /**
+     * Copy the file into the stream, transferred straight from the file channel when the
+     * stream is a file. The stream is left open.
+     *
+     * @param file the file
+     * @param out  the output stream
+     * @return the number of bytes copied
+     * @throws IOException if failed to copy
+     */
+    public static long copy(Path file, OutputStream out) throws IOException {
+        if (out instanceof FileOutputStream) {
+            return copy(file, ((FileOutputStream) out).getChannel());
+        }
+        InputStream in = Files.newInputStream(file);
+        try {
+            return copy(in, out);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Copy the file into the channel with {@link FileChannel#transferTo}, which does not go
+     * through the heap when the channel is a file or a socket. The channel is left open.
+     *
+     * @param file    the file
+     * @param channel the channel
+     * @return the number of bytes copied
+     * @throws IOException if failed to copy
+     */
+    public static long copy(Path file, WritableByteChannel channel) throws IOException {
+        FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return transfer(fileChannel, channel);
+        } finally {
+            fileChannel.close();
+        }
+    }
+
+    /**
+     * Copy the stream into the file, which is created or truncated. The stream is
+     * transferred straight into the file channel when it is a file itself, and is left open.
+     *
+     * @param in   the input stream
+     * @param file the file
+     * @return the number of bytes copied
+     * @throws IOException if failed to copy
+     */
+    public static long copy(InputStream in, Path file) throws IOException {
+        if (in instanceof FileInputStream) {
+            FileChannel src = ((FileInputStream) in).getChannel();
+            FileChannel dest = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            try {
+                long size = src.size() - src.position();
+                long count = 0;
+                while (count < size) {
+                    long n = dest.transferFrom(src, count, size - count);
+                    if (n <= 0) {
+                        checkShrunk(src, src.position(), count);
+                        break;
+                    }
+                    count += n;
+                }
+                return count;
+            } finally {
+                dest.close();
+            }
+        }
+        OutputStream out = Files.newOutputStream(file);
+        try {
+            return copy(in, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Transfer the channel from its position to its end, advancing its position. The end is
+     * the size of the file when the transfer starts, or the end the file shrank to meanwhile.
+     */
+    private static long transfer(FileChannel src, WritableByteChannel dest)
+        throws IOException {
+        long position = src.position();
+        long size = src.size();
+        long count = 0;
+        while (position + count < size) {
+            long n = src.transferTo(position + count, size - position - count, dest);
+            if (n <= 0) {
+                checkShrunk(src, position + count, count);
+                break;
+            }
+            count += n;
+        }
+        src.position(position + count);
+        return count;
+    }
+
+    /**
+     * A transfer making no progress is complete if the file shrank to the position reached,
+     * otherwise the other end takes no more bytes, e.g. a non-blocking socket, and looping
+     * again would spin forever.
+     */
+    private static void checkShrunk(FileChannel src, long position, long count)
+        throws IOException {
+        if (position < src.size()) {
+            throw new IOException("The transfer made no progress after " + count + " bytes");
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.ericsson.jenkinsci.hajp.api.files;
 
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
 import javax.xml.bind.JAXBContext;
@@ -105,6 +106,33 @@ public class XmlUtil {
         return incomingDoc;
     }
 
+    /**
+     * Replace the child element of the root element, or add it if there is none. Used to
+     * point an XStream field to another implementation, e.g. the artifact manager of a build.
+     *
+     * @param xml         the xml
+     * @param elementName the name of the child element
+     * @param className   the class attribute of the child element
+     * @return the updated xml
+     * @throws Exception if any
+     */
+    public static String setRootChildElement(String xml, String elementName, String className)
+        throws Exception {
+        Document doc = xmlToDocument(xml);
+        Element root = doc.getDocumentElement();
+        NodeList children = root.getElementsByTagName(elementName);
+        for (int i = children.getLength() - 1; i >= 0; i--) {
+            if (children.item(i).getParentNode() == root) {
+                root.removeChild(children.item(i));
+            }
+        }
+        Element child = doc.createElement(elementName);
+        child.setAttribute("class", className);
+        root.appendChild(child);
+
+        return docToString(doc);
+    }
+
     /**
      * Marshall the xml to a document
      *
@@ -1,23 +1,56 @@
 package com.ericsson.jenkinsci.hajp.api.files;
 
+import lombok.Getter;
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.ArchiveInputStream;
-import org.apache.commons.compress.archivers.ArchiveOutputStream;
 import org.apache.commons.compress.archivers.ArchiveStreamFactory;
+import org.apache.commons.compress.archivers.zip.ParallelScatterZipCreator;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
-import org.apache.commons.compress.utils.IOUtils;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.parallel.InputStreamSupplier;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.ZipEntry;
 
 /**
- * This class consists of instance methods to zip and unzip files.
+ * This class consists of instance methods to zip and unzip files. How each entry is
+ * compressed is decided by the compression policy of the instance.
  */
 public class ZipUtil {
     public static final String ZIP_ARCHIVER = "zip";
@@ -25,6 +58,36 @@ public class ZipUtil {
 
     public static final String ARCHIVE_FILENAME = "archive";
 
+    /* Time of all entries of deterministic archives, the earliest one a zip entry can hold */
+    public static final long DETERMINISTIC_TIME =
+        new GregorianCalendar(1980, Calendar.JANUARY, 1, 0, 0, 0).getTimeInMillis();
+    private static final int DETERMINISTIC_FILE_MODE = 0100644;
+    private static final int DETERMINISTIC_DIR_MODE = 040755;
+
+    @Getter private CompressionPolicy compressionPolicy;
+
+    /**
+     * Constructor using {@link CompressionPolicy#DEFAULT}.
+     */
+    public ZipUtil() {
+        this(CompressionPolicy.DEFAULT);
+    }
+
+    /**
+     * Constructor.
+     * @param compressionPolicy the policy choosing how each entry is compressed
+     */
+    public ZipUtil(CompressionPolicy compressionPolicy) {
+        this.compressionPolicy = compressionPolicy;
+    }
+
+    /**
+     * @param compressionPolicy the policy choosing how each entry is compressed
+     */
+    public void setCompressionPolicy(CompressionPolicy compressionPolicy) {
+        this.compressionPolicy = compressionPolicy;
+    }
+
     /**
      * Unzip files and store them in the specified directory.
      * @param zipFile the zip file
@@ -32,35 +95,152 @@ public class ZipUtil {
      * @throws Exception if failed to unzip files
      */
     public void unzip(final Path zipFile, final Path destDir) throws Exception {
+        final InputStream is = new FileInputStream(zipFile.toFile());
+        try {
+            unzip(is, destDir);
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Unzip files and store them in the specified directory, inflating the entries
+     * concurrently. The central directory of the zip file is read first, so all directories
+     * are created up front and the entries are then read at random from the file by a pool
+     * bounded by the parallelism.
+     * @param zipFile the zip file
+     * @param destDir the destination directory
+     * @param parallelism the maximum number of entries inflated at the same time
+     * @throws Exception if failed to unzip files
+     */
+    public void unzip(final Path zipFile, final Path destDir, final int parallelism)
+        throws Exception {
+        if (parallelism <= 1) {
+            unzip(zipFile, destDir);
+            return;
+        }
         if (!Files.exists(destDir)) {
             Files.createDirectory(destDir);
         }
 
-        final InputStream is = new FileInputStream(zipFile.toFile());
-        final ArchiveInputStream ain =
-            new ArchiveStreamFactory().createArchiveInputStream(ZIP_ARCHIVER, is);
+        final ZipFile zip = new ZipFile(zipFile.toFile());
+        final ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        try {
+            final List<Future<Void>> futures = new ArrayList<>();
+            final Set<File> dirs = new HashSet<>();
+            final List<ZipArchiveEntry> fileEntries = new ArrayList<>();
+            final Enumeration<ZipArchiveEntry> entries = zip.getEntries();
+            while (entries.hasMoreElements()) {
+                final ZipArchiveEntry entry = entries.nextElement();
+                final File archiveEntry = resolveEntry(destDir, entry.getName()).toFile();
+                if (entry.isDirectory()) {
+                    dirs.add(archiveEntry);
+                } else {
+                    dirs.add(archiveEntry.getParentFile());
+                    fileEntries.add(entry);
+                }
+            }
+            for (File dir : dirs) {
+                dir.mkdirs();
+            }
+            for (final ZipArchiveEntry entry : fileEntries) {
+                futures.add(pool.submit(new Callable<Void>() {
+                    @Override public Void call() throws Exception {
+                        InputStream in = zip.getInputStream(entry);
+                        try {
+                            TransferUtil.copy(in, resolveEntry(destDir, entry.getName()));
+                        } finally {
+                            in.close();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+            zip.close();
+        }
+    }
+
+    /**
+     * Unzip files as they are decompressed by the codec from the input stream, the counterpart
+     * of {@link #zip(Path, CapturePolicy, StreamCodec, OutputStream)}. The stream is left open.
+     * @param is the input stream the compressed zip archive is read from
+     * @param codec the codec the whole archive is compressed with
+     * @param destDir the destination directory
+     * @throws Exception if failed to unzip files
+     */
+    public void unzip(final InputStream is, final StreamCodec codec, final Path destDir)
+        throws Exception {
+        final InputStream cis = codec.decompress(new CloseShieldInputStream(is));
+        try {
+            unzip(cis, destDir);
+        } finally {
+            cis.close();
+        }
+    }
 
-        ArchiveEntry entry = ain.getNextEntry();
-        while (entry != null) {
-            unzipEntry(destDir.toFile(), entry, ain);
-            entry = ain.getNextEntry();
+    /**
+     * Unzip files as they are read from the input stream and store them in the specified
+     * directory, without any intermediate file. The stream is left open, so the caller remains
+     * responsible for closing it.
+     * @param is the input stream the zip archive is read from
+     * @param destDir the destination directory
+     * @throws Exception if failed to unzip files
+     */
+    public void unzip(final InputStream is, final Path destDir) throws Exception {
+        if (!Files.exists(destDir)) {
+            Files.createDirectory(destDir);
+        }
+
+        final ArchiveInputStream ain = new ArchiveStreamFactory()
+            .createArchiveInputStream(ZIP_ARCHIVER,
+                new BufferedInputStream(new CloseShieldInputStream(is)));
+        try {
+            ArchiveEntry entry = ain.getNextEntry();
+            while (entry != null) {
+                unzipEntry(destDir, entry, ain);
+                entry = ain.getNextEntry();
+            }
+        } finally {
+            ain.close();
         }
-        ain.close();
-        is.close();
     }
 
-    private void unzipEntry(final File destDir, final ArchiveEntry entry, final ArchiveInputStream ain) throws Exception {
-        File archiveEntry = new File(destDir, entry.getName());
+    private void unzipEntry(final Path destDir, final ArchiveEntry entry, final ArchiveInputStream ain) throws Exception {
+        File archiveEntry = resolveEntry(destDir, entry.getName()).toFile();
         if (entry.isDirectory()) {
-            archiveEntry.mkdir();
+            archiveEntry.mkdirs();
         } else {
-            OutputStream out = new FileOutputStream(archiveEntry);
-            try {
-                IOUtils.copy(ain, out);
-            } finally {
-                out.close();
-            }
+            archiveEntry.getParentFile().mkdirs();
+            TransferUtil.copy(ain, archiveEntry.toPath());
+        }
+    }
+
+    /**
+     * Resolve the path an archive entry is extracted to, rejecting any entry which escapes the
+     * destination directory, e.g. through "../" segments. A leading '/', as written by older
+     * versions of this class, is relative to the destination directory.
+     * @param destDir the destination directory
+     * @param entryName the name of the entry
+     * @return the normalized absolute path of the entry
+     * @throws IOException if the entry is outside the destination directory
+     */
+    public static Path resolveEntry(final Path destDir, final String entryName)
+        throws IOException {
+        final Path root = destDir.toAbsolutePath().normalize();
+        final Path target = new File(root.toFile(), entryName).toPath().normalize();
+        if (!target.startsWith(root)) {
+            throw new IOException("The entry=" + entryName + " is outside " + destDir);
         }
+        return target;
     }
 
     /**
@@ -73,32 +253,304 @@ public class ZipUtil {
     public void zip(final Path srcDir, final Path dir, final String zipFilename) throws Exception {
         final Path zipFile = dir.resolve(zipFilename);
         final OutputStream os = new FileOutputStream(zipFile.toFile());
-        final ArchiveOutputStream aos =
-            new ArchiveStreamFactory().createArchiveOutputStream(ZIP_ARCHIVER, os);
         try {
+            zipDir(srcDir, zipFilename, CapturePolicy.DEFAULT, compressionPolicy, os);
+        } finally {
+            os.close();
+        }
+    }
+
+    /**
+     * Zip all files under the directory straight into the output stream, without any
+     * intermediate file. The archive is completed but the stream is left open, so the caller
+     * remains responsible for closing it.
+     * @param srcDir the parent directory of files to be zipped
+     * @param os the output stream the zip archive is written to
+     * @throws Exception if failed to zip files
+     */
+    public void zip(final Path srcDir, final OutputStream os) throws Exception {
+        zip(srcDir, CapturePolicy.DEFAULT, os);
+    }
+
+    /**
+     * Zip the files under the directory captured by the policy straight into the output
+     * stream. The stream is left open.
+     * @param srcDir the parent directory of files to be zipped
+     * @param policy the policy selecting the files to be zipped
+     * @param os the output stream the zip archive is written to
+     * @throws Exception if failed to zip files
+     */
+    public void zip(final Path srcDir, final CapturePolicy policy, final OutputStream os)
+        throws Exception {
+        zipDir(srcDir, null, policy, compressionPolicy, os);
+    }
+
+    /**
+     * Zip the files under the directory captured by the policy, and compress the whole zip
+     * archive with the codec straight into the output stream. The entries are stored rather
+     * than deflated unless the codec is {@link StreamCodec#NONE}, so the codec sees the
+     * content of all files at once. The stream is left open.
+     * @param srcDir the parent directory of files to be zipped
+     * @param policy the policy selecting the files to be zipped
+     * @param codec the codec compressing the whole archive
+     * @param os the output stream the compressed zip archive is written to
+     * @throws Exception if failed to zip files
+     */
+    public void zip(final Path srcDir, final CapturePolicy policy, final StreamCodec codec,
+        final OutputStream os) throws Exception {
+        if (codec == StreamCodec.NONE) {
+            zip(srcDir, policy, os);
+            return;
+        }
+        final OutputStream cos = codec.compress(new CloseShieldOutputStream(os));
+        try {
+            zipDir(srcDir, null, policy, CompressionPolicy.STORE_ALL, cos);
+        } finally {
+            cos.close();
+        }
+    }
+
+    /**
+     * Zip the files under the directory captured by the policy straight into the output
+     * stream, deflating the entries concurrently. Each thread deflates its entries into its own
+     * scatter file, which are then stitched into a single zip archive with the same entries as
+     * {@link #zip(Path, CapturePolicy, OutputStream)}, though not in the same order. The
+     * compression policy still decides which entries are stored, but the deflate level of the
+     * scatter streams is always the default one. The scatter files are spilled to the temporary
+     * directory until the archive is stitched. The stream is left open.
+     * @param srcDir the parent directory of files to be zipped
+     * @param policy the policy selecting the files to be zipped
+     * @param os the output stream the zip archive is written to
+     * @param parallelism the maximum number of entries deflated at the same time
+     * @throws Exception if failed to zip files
+     */
+    public void zip(final Path srcDir, final CapturePolicy policy, final OutputStream os,
+        final int parallelism) throws Exception {
+        if (parallelism <= 1) {
+            zip(srcDir, policy, os);
+            return;
+        }
+        // the creator only shuts its pool down once writing, so a failed walk must do it
+        final ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        try {
+            final ParallelScatterZipCreator creator = new ParallelScatterZipCreator(pool);
+            final EntryConsumer consumer = new EntryConsumer() {
+                @Override public void accept(ZipArchiveEntry entry, final File file)
+                    throws IOException {
+                    entry.setMethod(file.isDirectory() ?
+                        ZipEntry.DEFLATED :
+                        compressionPolicy.getMethod(file));
+                    creator.addArchiveEntry(entry, new InputStreamSupplier() {
+                        @Override public InputStream get() {
+                            if (file.isDirectory()) {
+                                return new ByteArrayInputStream(new byte[0]);
+                            }
+                            try {
+                                return new FileInputStream(file);
+                            } catch (FileNotFoundException e) {
+                                throw new IllegalStateException(e);
+                            }
+                        }
+                    });
+                }
+            };
             for (File file : srcDir.toFile().listFiles()) {
-                if (!file.getName().equals(zipFilename)) {
-                    zipFile(file, "", aos);
+                zipFile(file, "", file.getName(), policy, consumer);
+            }
+
+            final ZipArchiveOutputStream zos = new ZipArchiveOutputStream(
+                new BufferedOutputStream(new CloseShieldOutputStream(os)));
+            try {
+                creator.writeTo(zos);
+            } finally {
+                zos.close();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Zip the files under the directory captured by the policy straight into the output stream
+     * so that the same content always gives the same bytes. Entries are named with '/'
+     * separators and sorted by name, their times and modes are normalized, and they are
+     * compressed with {@link CompressionPolicy#DEFAULT} whatever the policy of the instance.
+     * The hash of such an archive identifies the content of the directory. The stream is left
+     * open.
+     * @param srcDir the parent directory of files to be zipped
+     * @param policy the policy selecting the files to be zipped
+     * @param os the output stream the zip archive is written to
+     * @throws Exception if failed to zip files
+     */
+    public void zipDeterministic(final Path srcDir, final CapturePolicy policy,
+        final OutputStream os) throws Exception {
+        final SortedMap<String, File> entries = new TreeMap<>();
+        Files.walkFileTree(srcDir, new SimpleFileVisitor<Path>() {
+            @Override public FileVisitResult preVisitDirectory(Path dir,
+                BasicFileAttributes attrs) {
+                if (dir.equals(srcDir)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                String relativePath = BuildManifest.relativePath(srcDir, dir);
+                if (!policy.acceptsDirectory(relativePath)) {
+                    return FileVisitResult.SKIP_SUBTREE;
                 }
+                if (policy.capturesDirectories()) {
+                    entries.put(relativePath + "/", dir.toFile());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                String relativePath = BuildManifest.relativePath(srcDir, file);
+                if (attrs.isRegularFile() && policy.acceptsFile(relativePath, attrs.size())) {
+                    entries.put(relativePath, file.toFile());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        final ZipArchiveOutputStream zos =
+            new ZipArchiveOutputStream(new BufferedOutputStream(new CloseShieldOutputStream(os)));
+        try {
+            for (Map.Entry<String, File> entry : entries.entrySet()) {
+                ZipArchiveEntry zipEntry = new ZipArchiveEntry(entry.getKey());
+                zipEntry.setTime(DETERMINISTIC_TIME);
+                zipEntry.setUnixMode(entry.getValue().isFile() ?
+                    DETERMINISTIC_FILE_MODE :
+                    DETERMINISTIC_DIR_MODE);
+                writeEntry(zos, zipEntry, entry.getValue(), CompressionPolicy.DEFAULT);
             }
         } finally {
-            aos.close();
+            zos.close();
         }
     }
 
-    private void zipFile(final File file, final String parentFolder, final ArchiveOutputStream aos)
-        throws IOException {
-        // If it is a directory and not named archive, process it.
-        if (!file.isFile() && !file.getName().equals(ARCHIVE_FILENAME)) {
-            aos.putArchiveEntry(new ZipArchiveEntry(file.getName() + File.separator));
-            aos.closeArchiveEntry();
+    /**
+     * Zip only the listed files under the directory straight into the output stream. Entries
+     * are named after the given relative paths. The stream is left open.
+     * @param srcDir the parent directory of files to be zipped
+     * @param relativePaths the paths of the files to be zipped, relative to srcDir
+     * @param os the output stream the zip archive is written to
+     * @throws Exception if failed to zip files
+     */
+    public void zip(final Path srcDir, final Collection<String> relativePaths,
+        final OutputStream os) throws Exception {
+        zip(srcDir, relativePaths, Collections.<String, byte[]>emptyMap(), os);
+    }
+
+    /**
+     * Zip only the listed files under the directory straight into the output stream, after
+     * entries whose content is given rather than read from a file. The stream is left open.
+     * @param srcDir the parent directory of files to be zipped
+     * @param relativePaths the paths of the files to be zipped, relative to srcDir
+     * @param contentEntries the content of the extra entries, by entry name
+     * @param os the output stream the zip archive is written to
+     * @throws Exception if failed to zip files
+     */
+    public void zip(final Path srcDir, final Collection<String> relativePaths,
+        final Map<String, byte[]> contentEntries, final OutputStream os) throws Exception {
+        final ZipArchiveOutputStream zos =
+            new ZipArchiveOutputStream(new BufferedOutputStream(new CloseShieldOutputStream(os)));
+        try {
+            for (Map.Entry<String, byte[]> contentEntry : contentEntries.entrySet()) {
+                zos.putArchiveEntry(new ZipArchiveEntry(contentEntry.getKey()));
+                zos.write(contentEntry.getValue());
+                zos.closeArchiveEntry();
+            }
+            for (String relativePath : relativePaths) {
+                writeEntry(zos, new ZipArchiveEntry(relativePath),
+                    srcDir.resolve(relativePath).toFile(), compressionPolicy);
+            }
+        } finally {
+            zos.close();
+        }
+    }
+
+    private void zipDir(final Path srcDir, final String excludedFilename,
+        final CapturePolicy policy, final CompressionPolicy compression, final OutputStream os)
+        throws Exception {
+        final ZipArchiveOutputStream zos =
+            new ZipArchiveOutputStream(new BufferedOutputStream(new CloseShieldOutputStream(os)));
+        final EntryConsumer consumer = new EntryConsumer() {
+            @Override public void accept(ZipArchiveEntry entry, File file) throws IOException {
+                writeEntry(zos, entry, file, compression);
+            }
+        };
+        try {
+            for (File file : srcDir.toFile().listFiles()) {
+                if (!file.getName().equals(excludedFilename)) {
+                    zipFile(file, "", file.getName(), policy, consumer);
+                }
+            }
+        } finally {
+            zos.close();
+        }
+    }
+
+    private void zipFile(final File file, final String parentFolder, final String relativePath,
+        final CapturePolicy policy, final EntryConsumer consumer) throws IOException {
+        // If it is a directory accepted by the policy, process it.
+        if (!file.isFile() && policy.acceptsDirectory(relativePath)) {
+            if (policy.capturesDirectories()) {
+                consumer.accept(new ZipArchiveEntry(file.getName() + File.separator), file);
+            }
             for (File f : file.listFiles()) {
-                zipFile(f, parentFolder + File.separator + file.getName() + File.separator, aos);
+                zipFile(f, parentFolder + File.separator + file.getName() + File.separator,
+                    relativePath + "/" + f.getName(), policy, consumer);
             }
-        } else if(file.isFile()) {
-            aos.putArchiveEntry(new ZipArchiveEntry(parentFolder + file.getName()));
-            IOUtils.copy(new FileInputStream(file), aos);
-            aos.closeArchiveEntry();
+        } else if (file.isFile() && policy.acceptsFile(relativePath, file.length())) {
+            consumer.accept(new ZipArchiveEntry(parentFolder + file.getName()), file);
         }
     }
+
+    /**
+     * A stored entry is written to a stream, not a file, so its size and CRC have to be known
+     * before its content, which costs an extra read of the file.
+     */
+    private void writeEntry(final ZipArchiveOutputStream zos, final ZipArchiveEntry entry,
+        final File file, final CompressionPolicy compression) throws IOException {
+        if (!file.isFile()) {
+            zos.putArchiveEntry(entry);
+            zos.closeArchiveEntry();
+            return;
+        }
+        if (compression.getMethod(file) == ZipEntry.STORED) {
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(file.length());
+            entry.setCrc(crc32(file));
+        } else {
+            entry.setMethod(ZipEntry.DEFLATED);
+            zos.setLevel(compression.getLevel(file));
+        }
+        zos.putArchiveEntry(entry);
+        copyFile(file, zos);
+        zos.closeArchiveEntry();
+    }
+
+    private long crc32(final File file) throws IOException {
+        final CRC32 crc = new CRC32();
+        final InputStream in = new CheckedInputStream(new FileInputStream(file), crc);
+        final byte[] buffer = BufferPool.SHARED.acquire();
+        try {
+            while (in.read(buffer) >= 0) {
+                // only the checksum is needed
+            }
+        } finally {
+            BufferPool.SHARED.release(buffer);
+            in.close();
+        }
+        return crc.getValue();
+    }
+
+    private void copyFile(final File file, final OutputStream os) throws IOException {
+        TransferUtil.copy(file.toPath(), os);
+    }
+
+    /**
+     * Receiver of the entries found while walking the directory, with the file they are made of.
+     */
+    private interface EntryConsumer {
+        void accept(ZipArchiveEntry entry, File file) throws IOException;
+    }
 }
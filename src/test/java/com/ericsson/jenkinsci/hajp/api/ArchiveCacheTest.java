@@ -0,0 +1,90 @@
+package com.ericsson.jenkinsci.hajp.api;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+public class ArchiveCacheTest {
+
+    @Rule public TemporaryFolder rule = new TemporaryFolder();
+
+    private Path cacheDir;
+    private ArchiveCache cacheUnderTest;
+
+    @Before public void setUp() throws IOException {
+        cacheDir = rule.newFolder("cache").toPath();
+        cacheUnderTest = new ArchiveCache(cacheDir, 250);
+    }
+
+    private Path put(ArchiveCache cache, String key, int size) throws IOException {
+        Path tmpFile = cache.createTmpFile();
+        Files.write(tmpFile, new byte[size]);
+        return cache.put(key, tmpFile);
+    }
+
+    @Test public void testGetAfterPut() throws IOException {
+        Assert.assertNull(cacheUnderTest.get("job/1/abc"));
+
+        Path archive = put(cacheUnderTest, "job/1/abc", 100);
+
+        Assert.assertEquals(archive, cacheUnderTest.get("job/1/abc"));
+        Assert.assertNull(cacheUnderTest.get("job/1/def"));
+        Assert.assertEquals(100, cacheUnderTest.getTotalSize());
+    }
+
+    @Test public void testLeastRecentlyUsedEvicted() throws IOException {
+        put(cacheUnderTest, "a", 100);
+        put(cacheUnderTest, "b", 100);
+        cacheUnderTest.get("a");
+
+        put(cacheUnderTest, "c", 100);
+
+        Assert.assertNotNull(cacheUnderTest.get("a"));
+        Assert.assertNull(cacheUnderTest.get("b"));
+        Assert.assertNotNull(cacheUnderTest.get("c"));
+        Assert.assertEquals(200, cacheUnderTest.getTotalSize());
+        Assert.assertEquals(2, cacheDir.toFile().list().length);
+    }
+
+    @Test public void testTooBigArchiveNotCached() throws IOException {
+        put(cacheUnderTest, "a", 100);
+
+        Assert.assertNull(put(cacheUnderTest, "b", 300));
+
+        Assert.assertNotNull(cacheUnderTest.get("a"));
+        Assert.assertEquals(1, cacheDir.toFile().list().length);
+    }
+
+    @Test public void testReopened() throws IOException {
+        Path a = put(cacheUnderTest, "a", 100);
+        Path b = put(cacheUnderTest, "b", 100);
+        Files.setLastModifiedTime(a, FileTime.fromMillis(2000));
+        Files.setLastModifiedTime(b, FileTime.fromMillis(1000));
+        cacheUnderTest.createTmpFile();
+
+        ArchiveCache reopened = new ArchiveCache(cacheDir, 250);
+        put(reopened, "c", 100);
+
+        Assert.assertNotNull(reopened.get("a"));
+        Assert.assertNull(reopened.get("b"));
+        Assert.assertEquals(200, reopened.getTotalSize());
+        Assert.assertEquals(2, cacheDir.toFile().list().length);
+    }
+
+    @Test public void testFingerprintChangesWithFiles() throws IOException {
+        Path buildDir = rule.newFolder("build").toPath();
+        Files.write(buildDir.resolve("log"), "started".getBytes());
+        String fingerprint = ArchiveCache.fingerprint(buildDir);
+
+        Assert.assertEquals(fingerprint, ArchiveCache.fingerprint(buildDir));
+        Files.write(buildDir.resolve("log"), "started, finished".getBytes());
+        Assert.assertNotEquals(fingerprint, ArchiveCache.fingerprint(buildDir));
+    }
+}
@@ -1,11 +1,23 @@
 package com.ericsson.jenkinsci.hajp.api;
 
+import com.ericsson.jenkinsci.hajp.api.files.ArchiveFormat;
+import com.ericsson.jenkinsci.hajp.api.files.BuildManifest;
+import com.ericsson.jenkinsci.hajp.api.files.CapturePolicy;
+import com.ericsson.jenkinsci.hajp.api.files.FileSignature;
+import com.ericsson.jenkinsci.hajp.api.files.StreamCodec;
+import com.ericsson.jenkinsci.hajp.api.files.ZipUtil;
 import hudson.model.AbstractProject;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
 import hudson.model.Job;
+import hudson.model.PermalinkProjectAction;
 import hudson.model.Run;
+import hudson.model.TaskListener;
 import hudson.model.TopLevelItem;
 import hudson.util.RunList;
+import jenkins.model.ArtifactManager;
 import jenkins.model.Jenkins;
+import jenkins.model.PeepholePermalink;
 import org.apache.commons.io.FileUtils;
 import org.junit.After;
 import org.junit.Assert;
@@ -15,14 +27,37 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.mockito.Mockito;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.text.Format;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 public class BuildsManagerTest {
 
@@ -65,7 +100,8 @@ public class BuildsManagerTest {
         Mockito.when(mockJobsManager.getJobDir(jobName)).thenReturn(jobDir);
     }
 
-    @After public void after() {
+    @After public void after() throws IOException {
+        buildsManagerUnderTest.close();
         Mockito.reset(mockAbstractProject);
         Mockito.reset(mockJob);
         Mockito.reset(mockTopLevelItem);
@@ -105,6 +141,19 @@ public class BuildsManagerTest {
         return buildDir;
     }
 
+    private File createBuildFiles(File jobDir, int buildNumber, String buildDirName)
+        throws IOException {
+        File buildsDir = new File(jobDir, BuildsManager.BUILDS_DIRNAME);
+        File buildDir = new File(buildsDir, buildDirName);
+        buildDir.mkdir();
+        Files.createSymbolicLink(new File(buildsDir, "" + buildNumber).toPath(),
+            buildDir.toPath());
+        Files.write(new File(buildDir, "build.xml").toPath(),
+            ("<build>" + buildNumber + "</build>").getBytes());
+        new File(buildDir, "log").createNewFile();
+        return buildDir;
+    }
+
     private void createLinks(File jobDir, File buildDir) throws IOException {
         File buildsDir = new File(jobDir, buildsManagerUnderTest.BUILDS_DIRNAME);
 
@@ -159,6 +208,46 @@ public class BuildsManagerTest {
         Assert.assertNotNull(fileAsByteArray);
     }
 
+    @Test public void testGrabBuildToStream() throws BuildsManagementException, IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        buildsManagerUnderTest.grabBuild(jobName, buildNumber, os);
+
+        List<String> entryNames = new ArrayList<>();
+        ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(os.toByteArray()));
+        for (ZipEntry entry = zis.getNextEntry(); entry != null; entry = zis.getNextEntry()) {
+            entryNames.add(entry.getName());
+        }
+        zis.close();
+        Assert.assertTrue(entryNames.contains("build.xml"));
+        Assert.assertTrue(entryNames.contains("log"));
+        Assert.assertFalse(Files.exists(buildsManagerUnderTest.getBuildsDir(jobName)
+            .resolve(jobName + BuildsManager.BUILD_TAG + buildNumber + ZipUtil.ZIP_SUFFIX)));
+    }
+
+    @Test public void testGrabBuildInParallel() throws BuildsManagementException, IOException {
+        ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+        buildsManagerUnderTest.grabBuild(jobName, buildNumber, CapturePolicy.DEFAULT, sequential);
+        ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+        buildsManagerUnderTest
+            .grabBuild(jobName, buildNumber, CapturePolicy.DEFAULT, parallel, 4);
+
+        Assert.assertEquals(getEntryNames(sequential.toByteArray()),
+            getEntryNames(parallel.toByteArray()));
+    }
+
+    private static TreeSet<String> getEntryNames(byte[] zip) throws IOException {
+        TreeSet<String> entryNames = new TreeSet<>();
+        ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zip));
+        try {
+            for (ZipEntry entry = zis.getNextEntry(); entry != null; entry = zis.getNextEntry()) {
+                entryNames.add(entry.getName());
+            }
+        } finally {
+            zis.close();
+        }
+        return entryNames;
+    }
+
     @Test public void testExtractFile() throws BuildsManagementException, IOException {
         byte[] fileAsByteArray = buildsManagerUnderTest.grabBuild(jobName, buildNumber);
         String timestampBuildDirName =
@@ -175,6 +264,621 @@ public class BuildsManagerTest {
         Assert.assertTrue(Files.exists(destBuildDir));
     }
 
+    @Test public void testExtractBuildFromStream() throws BuildsManagementException, IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        buildsManagerUnderTest.grabBuild(jobName, buildNumber, os);
+        String timestampBuildDirName =
+            buildsManagerUnderTest.getTimestampBuildDirName(jobName, buildNumber);
+        Path buildsDir = buildsManagerUnderTest.getBuildsDir(jobName);
+        FileUtils.deleteDirectory(buildsDir.resolve(timestampBuildDirName).toFile());
+        Files.delete(buildsManagerUnderTest.getNumberBuildDir(jobName, buildNumber));
+
+        Path destBuildDir = buildsManagerUnderTest
+            .extractBuild(new ByteArrayInputStream(os.toByteArray()), jobName, buildNumber,
+                timestampBuildDirName);
+
+        Assert.assertTrue(Files.exists(destBuildDir.resolve("build.xml")));
+        Assert.assertEquals(timestampBuildDirName,
+            buildsManagerUnderTest.getTimestampBuildDirName(jobName, buildNumber));
+        Assert.assertFalse(Files.exists(buildsDir
+            .resolve(jobName + BuildsManager.BUILD_TAG + buildNumber + ZipUtil.ZIP_SUFFIX)));
+    }
+
+    @Test public void testExtractTruncatedBuildLeavesNoTmpDir() throws Exception {
+        Files.write(buildDir.toPath().resolve(BuildsManager.BUILD_LOG), new byte[64 * 1024]);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        buildsManagerUnderTest.grabBuild(jobName, buildNumber, os);
+        byte[] truncated = Arrays.copyOf(os.toByteArray(), os.size() / 2);
+        Path buildsDir = buildsManagerUnderTest.getBuildsDir(jobName);
+
+        try {
+            buildsManagerUnderTest.extractBuild(new ByteArrayInputStream(truncated), jobName, 42,
+                "2015-01-01_00-00-42");
+            Assert.fail("The truncated archive was extracted");
+        } catch (BuildsManagementException e) {
+            Assert.assertFalse(Files.exists(buildsDir.resolve(BuildsManager.BUILD_TMP)));
+        }
+        try {
+            buildsManagerUnderTest.extractBuildDelta(new ByteArrayInputStream(truncated), jobName,
+                buildNumber, buildDir.getName());
+            Assert.fail("The truncated delta was applied");
+        } catch (BuildsManagementException e) {
+            Assert.assertFalse(Files.exists(buildsDir.resolve(BuildsManager.BUILD_TMP)));
+        }
+    }
+
+    @Test public void testExtractBuildFromFile() throws BuildsManagementException, IOException {
+        File zipFile = rule.newFile("build.zip");
+        OutputStream os = new FileOutputStream(zipFile);
+        buildsManagerUnderTest.grabBuild(jobName, buildNumber, os);
+        os.close();
+
+        Path destBuildDir = buildsManagerUnderTest
+            .extractBuild(zipFile.toPath(), jobName, 42, "2015-01-01_00-00-42");
+
+        Assert.assertTrue(Files.exists(destBuildDir.resolve("build.xml")));
+        Assert.assertEquals("2015-01-01_00-00-42",
+            buildsManagerUnderTest.getTimestampBuildDirName(jobName, 42));
+    }
+
+    @Test public void testGrabAndExtractBuildWithStreamCodec()
+        throws BuildsManagementException, IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        buildsManagerUnderTest
+            .grabBuild(jobName, buildNumber, CapturePolicy.DEFAULT, StreamCodec.XZ, os);
+
+        Path destBuildDir = buildsManagerUnderTest
+            .extractBuild(new ByteArrayInputStream(os.toByteArray()), StreamCodec.XZ, jobName, 43,
+                "2015-01-01_00-00-43");
+
+        Assert.assertTrue(Files.exists(destBuildDir.resolve("build.xml")));
+        Assert.assertTrue(buildsManagerUnderTest.buildExists(jobName, 43));
+    }
+
+    @Test public void testExtractTarBuildWhileGrabbing() throws Exception {
+        final PipedOutputStream os = new PipedOutputStream();
+        PipedInputStream is = new PipedInputStream(os);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Void> grab = executor.submit(new Callable<Void>() {
+            @Override public Void call() throws Exception {
+                try {
+                    buildsManagerUnderTest.grabBuild(jobName, buildNumber, ArchiveFormat.TAR,
+                        CapturePolicy.DEFAULT, StreamCodec.GZIP, os);
+                } finally {
+                    os.close();
+                }
+                return null;
+            }
+        });
+
+        Path destBuildDir = buildsManagerUnderTest
+            .extractBuild(is, ArchiveFormat.TAR, StreamCodec.GZIP, jobName, 44,
+                "2015-01-01_00-00-44");
+        grab.get(30, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        Assert.assertTrue(BuildManifest.of(buildDir.toPath()).diff(BuildManifest.of(destBuildDir))
+            .isEmpty());
+        Assert.assertEquals(
+            Files.getLastModifiedTime(buildDir.toPath().resolve("build.xml")).to(TimeUnit.SECONDS),
+            Files.getLastModifiedTime(destBuildDir.resolve("build.xml")).to(TimeUnit.SECONDS));
+    }
+
+    @Test public void testBuildArchiveHash() throws Exception {
+        String hash = buildsManagerUnderTest.getBuildArchiveHash(jobName, buildNumber,
+            CapturePolicy.DEFAULT);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        buildsManagerUnderTest.grabDeterministicBuild(jobName, buildNumber, CapturePolicy.DEFAULT,
+            os);
+        buildsManagerUnderTest.extractBuild(new ByteArrayInputStream(os.toByteArray()), jobName,
+            45, "2015-01-01_00-00-45");
+
+        Assert.assertEquals(64, hash.length());
+        Assert.assertEquals(hash,
+            buildsManagerUnderTest.getBuildArchiveHash(jobName, 45, CapturePolicy.DEFAULT));
+        Files.write(buildDir.toPath().resolve("log"), "more output".getBytes());
+        Assert.assertNotEquals(hash, buildsManagerUnderTest
+            .getBuildArchiveHash(jobName, buildNumber, CapturePolicy.DEFAULT));
+    }
+
+    @Test public void testConcurrentExtractBuilds() throws Exception {
+        final String otherJobName = "otherJob";
+        File otherJobDir = createJobFiles(otherJobName);
+        Mockito.when(mockJobsManager.getJobDir(otherJobName)).thenReturn(otherJobDir);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        buildsManagerUnderTest.grabBuild(jobName, buildNumber, os);
+        final byte[] archive = os.toByteArray();
+        final int threads = 8;
+        final int buildsPerThread = 5;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override public Void call() throws Exception {
+                    start.await();
+                    for (int i = 0; i < buildsPerThread; i++) {
+                        int number = 100 + thread * buildsPerThread + i;
+                        String job = number % 2 == 0 ? jobName : otherJobName;
+                        buildsManagerUnderTest
+                            .extractBuild(new ByteArrayInputStream(archive), job, number,
+                                "2015-01-01_00-00-" + number);
+                    }
+                    return null;
+                }
+            }));
+        }
+        start.countDown();
+        for (Future<Void> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        for (int number = 100; number < 100 + threads * buildsPerThread; number++) {
+            String job = number % 2 == 0 ? jobName : otherJobName;
+            Assert.assertTrue(buildsManagerUnderTest.buildExists(job, number));
+            Assert.assertTrue(Files.exists(
+                buildsManagerUnderTest.getNumberBuildDir(job, number).resolve("build.xml")));
+        }
+        Assert.assertFalse(Files.exists(
+            buildsManagerUnderTest.getBuildsDir(jobName).resolve(BuildsManager.BUILD_TMP)));
+        Assert.assertFalse(Files.exists(
+            buildsManagerUnderTest.getBuildsDir(otherJobName).resolve(BuildsManager.BUILD_TMP)));
+    }
+
+    @Test public void testConcurrentExtractSameBuild() throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        buildsManagerUnderTest.grabBuild(jobName, buildNumber, os);
+        final byte[] archive = os.toByteArray();
+        final String timestampBuildDirName =
+            buildsManagerUnderTest.getTimestampBuildDirName(jobName, buildNumber);
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Path>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            futures.add(executor.submit(new Callable<Path>() {
+                @Override public Path call() throws Exception {
+                    start.await();
+                    return buildsManagerUnderTest
+                        .extractBuild(new ByteArrayInputStream(archive), jobName, buildNumber,
+                            timestampBuildDirName);
+                }
+            }));
+        }
+        start.countDown();
+        for (Future<Path> future : futures) {
+            Assert.assertTrue(Files.exists(future.get(30, TimeUnit.SECONDS).resolve("build.xml")));
+        }
+        executor.shutdown();
+
+        Assert.assertEquals(timestampBuildDirName,
+            buildsManagerUnderTest.getTimestampBuildDirName(jobName, buildNumber));
+        Assert.assertFalse(Files.exists(
+            buildsManagerUnderTest.getBuildsDir(jobName).resolve(BuildsManager.BUILD_TMP)));
+    }
+
+    @Test public void testGrabAndExtractBuildDelta()
+        throws BuildsManagementException, IOException {
+        BuildManifest remoteManifest = buildsManagerUnderTest.getBuildManifest(jobName, buildNumber);
+        Files.write(buildDir.toPath().resolve("log"), "more output".getBytes());
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        buildsManagerUnderTest.grabBuildDelta(jobName, buildNumber, remoteManifest, os);
+        Files.write(buildDir.toPath().resolve("log"), new byte[0]);
+        Files.write(buildDir.toPath().resolve("build.xml"), "<build/>".getBytes());
+
+        Path destBuildDir = buildsManagerUnderTest
+            .extractBuildDelta(new ByteArrayInputStream(os.toByteArray()), jobName, buildNumber,
+                buildDir.getName());
+
+        Assert.assertEquals(buildDir.toPath(), destBuildDir);
+        Assert.assertEquals("more output",
+            new String(Files.readAllBytes(destBuildDir.resolve("log"))));
+        Assert.assertEquals("<build/>",
+            new String(Files.readAllBytes(destBuildDir.resolve("build.xml"))));
+        Assert.assertFalse(Files.exists(buildsManagerUnderTest.getBuildsDir(jobName)
+            .resolve(BuildsManager.BUILD_CLASHING)));
+    }
+
+    @Test public void testExtractBuildDeltaDeletesRemovedFiles()
+        throws BuildsManagementException, IOException {
+        Path stale = buildDir.toPath().resolve("reports/stale.txt");
+        Files.createDirectories(stale.getParent());
+        Files.write(stale, "stale".getBytes());
+        BuildManifest remoteManifest = buildsManagerUnderTest.getBuildManifest(jobName, buildNumber);
+        Files.delete(stale);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        buildsManagerUnderTest.grabBuildDelta(jobName, buildNumber, remoteManifest, os);
+        Assert.assertEquals(Collections.singleton(BuildsManager.BUILD_DELTA_REMOVED),
+            getEntryNames(os.toByteArray()));
+        Files.write(stale, "stale".getBytes());
+
+        Path destBuildDir = buildsManagerUnderTest
+            .extractBuildDelta(new ByteArrayInputStream(os.toByteArray()), jobName, buildNumber,
+                buildDir.getName());
+
+        Assert.assertFalse(Files.exists(destBuildDir.resolve("reports/stale.txt")));
+        Assert.assertFalse(Files.exists(destBuildDir.resolve(BuildsManager.BUILD_DELTA_REMOVED)));
+    }
+
+    @Test public void testBuildFileDelta() throws BuildsManagementException, IOException {
+        Path log = buildDir.toPath().resolve("log");
+        Files.write(log, "first line\n".getBytes());
+        FileSignature signature =
+            buildsManagerUnderTest.getBuildFileSignature(jobName, buildNumber, "log");
+        Files.write(log, "first line\nsecond line\n".getBytes());
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        buildsManagerUnderTest.grabBuildFileDelta(jobName, buildNumber, "log", signature, delta);
+        Files.write(log, "first line\n".getBytes());
+
+        buildsManagerUnderTest.applyBuildFileDelta(new ByteArrayInputStream(delta.toByteArray()),
+            jobName, buildNumber, "log");
+
+        Assert.assertEquals("first line\nsecond line\n", new String(Files.readAllBytes(log)));
+    }
+
+    @Test(expected = BuildsManagementException.class) public void testBuildFileDeltaOutsideBuild()
+        throws BuildsManagementException {
+        buildsManagerUnderTest.getBuildFileSignature(jobName, buildNumber, "../../config.xml");
+    }
+
+    @Test public void testBuildLogTailReplication() throws BuildsManagementException, IOException {
+        Path log = buildDir.toPath().resolve(BuildsManager.BUILD_LOG);
+        int standbyBuildNumber = 2;
+        String standbyBuildDirName = "standby";
+
+        Files.write(log, "Started\n".getBytes());
+        long offset = buildsManagerUnderTest.getBuildLogOffset(jobName, standbyBuildNumber);
+        byte[] chunk = buildsManagerUnderTest.readBuildLog(jobName, buildNumber, offset, 1024);
+        offset = buildsManagerUnderTest
+            .appendBuildLog(jobName, standbyBuildNumber, standbyBuildDirName, offset, chunk);
+        Assert.assertEquals(8, offset);
+
+        Files.write(log, "Started\nFinished\n".getBytes());
+        chunk = buildsManagerUnderTest.readBuildLog(jobName, buildNumber, offset, 4);
+        offset = buildsManagerUnderTest
+            .appendBuildLog(jobName, standbyBuildNumber, standbyBuildDirName, offset, chunk);
+        chunk = buildsManagerUnderTest.readBuildLog(jobName, buildNumber, offset, 1024);
+        offset = buildsManagerUnderTest
+            .appendBuildLog(jobName, standbyBuildNumber, standbyBuildDirName, offset, chunk);
+
+        Assert.assertEquals(0, buildsManagerUnderTest.readBuildLog(jobName, buildNumber, offset,
+            1024).length);
+        Assert.assertEquals(offset,
+            buildsManagerUnderTest.getBuildLogOffset(jobName, standbyBuildNumber));
+        Assert.assertEquals("Started\nFinished\n", new String(Files.readAllBytes(
+            buildsManagerUnderTest.getNumberBuildDir(jobName, standbyBuildNumber)
+                .resolve(BuildsManager.BUILD_LOG))));
+    }
+
+    @Test(expected = BuildsManagementException.class) public void testAppendBuildLogPastEnd()
+        throws BuildsManagementException {
+        buildsManagerUnderTest.appendBuildLog(jobName, buildNumber, buildDir.getName(), 1000,
+            "lost".getBytes());
+    }
+
+    @Test public void testGrabBuildFromArchiveCache() throws Exception {
+        ArchiveCache cache = new ArchiveCache(rule.newFolder("cache").toPath(), 1024 * 1024);
+        buildsManagerUnderTest.setArchiveCache(cache);
+
+        // still running, so not cached
+        byte[] running = buildsManagerUnderTest.grabBuild(jobName, buildNumber);
+        Assert.assertEquals(0, cache.getTotalSize());
+
+        Files.write(new File(buildDir, "build.xml").toPath(),
+            "<build><result>SUCCESS</result></build>".getBytes());
+        byte[] missed = buildsManagerUnderTest.grabBuild(jobName, buildNumber);
+        Assert.assertTrue(cache.getTotalSize() > 0);
+        Assert.assertTrue(running.length > 0);
+
+        Path out = rule.newFile("out.zip").toPath();
+        FileChannel channel = FileChannel.open(out, StandardOpenOption.WRITE);
+        try {
+            buildsManagerUnderTest.grabBuild(jobName, buildNumber, channel);
+        } finally {
+            channel.close();
+        }
+        Assert.assertArrayEquals(missed, Files.readAllBytes(out));
+        Assert.assertEquals(1, cache.getCacheDir().toFile().list().length);
+    }
+
+    @Test public void testGrabBuildWithResultInCommentNotCached() throws Exception {
+        ArchiveCache cache = new ArchiveCache(rule.newFolder("cache").toPath(), 1024 * 1024);
+        buildsManagerUnderTest.setArchiveCache(cache);
+        Files.write(new File(buildDir, "build.xml").toPath(),
+            "<build><!-- <result>SUCCESS</result> --></build>".getBytes());
+
+        buildsManagerUnderTest.grabBuild(jobName, buildNumber);
+
+        Assert.assertEquals(0, cache.getTotalSize());
+    }
+
+    @Test public void testConcurrentArchiveCacheMissesZippedOnce() throws Exception {
+        ArchiveCache cache = Mockito
+            .spy(new ArchiveCache(rule.newFolder("cache").toPath(), 1024 * 1024));
+        buildsManagerUnderTest.setArchiveCache(cache);
+        Files.write(new File(buildDir, "build.xml").toPath(),
+            "<build><result>SUCCESS</result></build>".getBytes());
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<byte[]>> grabs = new ArrayList<>();
+        try {
+            for (int i = 0; i < 4; i++) {
+                grabs.add(executor.submit(new Callable<byte[]>() {
+                    @Override public byte[] call() throws Exception {
+                        start.await();
+                        return buildsManagerUnderTest.grabBuild(jobName, buildNumber);
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<byte[]> grab : grabs) {
+                Assert.assertArrayEquals(grabs.get(0).get(), grab.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Mockito.verify(cache, Mockito.times(1)).createTmpFile();
+    }
+
+    @Test public void testGrabBuildWithArchiveEvicted() throws Exception {
+        ArchiveCache cache = Mockito
+            .spy(new ArchiveCache(rule.newFolder("cache").toPath(), 1024 * 1024));
+        buildsManagerUnderTest.setArchiveCache(cache);
+        Files.write(new File(buildDir, "build.xml").toPath(),
+            "<build><result>SUCCESS</result></build>".getBytes());
+        Mockito.doReturn(cache.getCacheDir().resolve("evicted.zip")).when(cache)
+            .get(Mockito.anyString());
+
+        byte[] archive = buildsManagerUnderTest.grabBuild(jobName, buildNumber);
+
+        Assert.assertTrue(getEntryNames(archive).contains("build.xml"));
+    }
+
+    @Test(expected = BuildsManagementException.class)
+    public void testReadBuildLogFromNegativeOffset() throws BuildsManagementException {
+        buildsManagerUnderTest.readBuildLog(jobName, buildNumber, -1, 1024);
+    }
+
+    @Test(expected = BuildsManagementException.class)
+    public void testReadBuildLogNegativeMaxBytes() throws BuildsManagementException {
+        buildsManagerUnderTest.readBuildLog(jobName, buildNumber, 0, -1);
+    }
+
+    @Test public void testGrabBuilds() throws Exception {
+        createBuildFiles(jobDir, 2, "2015-01-01_00-00-02");
+        createBuildFiles(jobDir, 3, "2015-01-01_00-00-03");
+        final Map<Integer, ByteArrayOutputStream> archives = new ConcurrentHashMap<>();
+
+        Map<Integer, BuildsManagementException> failures =
+            buildsManagerUnderTest.grabBuilds(jobName, 1, 5, new BuildArchiveSink() {
+                @Override public OutputStream open(int buildNumber) {
+                    ByteArrayOutputStream os = new ByteArrayOutputStream();
+                    archives.put(buildNumber, os);
+                    return os;
+                }
+            });
+
+        Assert.assertTrue(failures.isEmpty());
+        Assert.assertEquals(new TreeSet<>(Arrays.asList(1, 2, 3)),
+            new TreeSet<>(archives.keySet()));
+        Path destDir = rule.newFolder("build3").toPath();
+        new ZipUtil().unzip(new ByteArrayInputStream(archives.get(3).toByteArray()), destDir);
+        Assert.assertEquals("<build>3</build>",
+            new String(Files.readAllBytes(destDir.resolve("build.xml"))));
+    }
+
+    @Test(timeout = 10000) public void testGrabBuildsUpToMaxBuildNumber() throws Exception {
+        createBuildFiles(jobDir, 2, "2015-01-01_00-00-02");
+        final Map<Integer, ByteArrayOutputStream> archives = new ConcurrentHashMap<>();
+
+        Map<Integer, BuildsManagementException> failures = buildsManagerUnderTest
+            .grabBuilds(jobName, 2, Integer.MAX_VALUE, new BuildArchiveSink() {
+                @Override public OutputStream open(int buildNumber) {
+                    ByteArrayOutputStream os = new ByteArrayOutputStream();
+                    archives.put(buildNumber, os);
+                    return os;
+                }
+            });
+
+        Assert.assertTrue(failures.isEmpty());
+        Assert.assertEquals(Collections.singleton(2), archives.keySet());
+    }
+
+    @Test public void testGrabBuildsWithMissingBuild() throws BuildsManagementException {
+        Map<Integer, BuildsManagementException> failures = buildsManagerUnderTest
+            .grabBuilds(jobName, Arrays.asList(1, 9), new BuildArchiveSink() {
+                @Override public OutputStream open(int buildNumber) {
+                    return new ByteArrayOutputStream();
+                }
+            }, 2);
+
+        Assert.assertEquals(Collections.singleton(9), failures.keySet());
+        Assert.assertEquals(9, failures.get(9).getBuildNumber());
+    }
+
+    @Test public void testBuildDirIndexWithDateBasedBuildNumber() throws Exception {
+        createBuildFiles(jobDir, 20161017, "2016-10-17_00-00-00");
+
+        Assert.assertTrue(buildsManagerUnderTest.buildExists(jobName, 20161017));
+        Assert.assertEquals("2016-10-17_00-00-00",
+            buildsManagerUnderTest.getTimestampBuildDirName(jobName, 20161017));
+        Assert.assertFalse(buildsManagerUnderTest.buildExists(jobName, 20161016));
+    }
+
+    @Test public void testBuildDirIndexFollowsBuildsDir() throws Exception {
+        BuildDirWatcher watcher = new BuildDirWatcher(false);
+        BuildsManager buildsManager = new BuildsManager(mockJobsManager, watcher);
+        try {
+            Assert.assertTrue(buildsManager.buildExists(jobName, buildNumber));
+            Assert.assertFalse(buildsManager.buildExists(jobName, 2));
+
+            // builds created and deleted behind the back of the manager
+            createBuildFiles(jobDir, 2, "2015-01-01_00-00-02");
+            Assert.assertTrue(buildsManager.buildExists(jobName, 2));
+            Assert.assertEquals("2015-01-01_00-00-02",
+                buildsManager.getTimestampBuildDirName(jobName, 2));
+            Files.delete(buildsManager.getNumberBuildDir(jobName, buildNumber));
+
+            // each call blocks until the watch service reports the next batch of changes
+            while (buildsManager.buildExists(jobName, buildNumber)) {
+                Assert.assertTrue(watcher.processEvents(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            buildsManager.close();
+        }
+    }
+
+    @Test public void testListBuildSummaries() throws Exception {
+        for (int i = 2; i <= 5; i++) {
+            createBuildFiles(jobDir, i, "2015-01-01_00-00-0" + i);
+        }
+        long modifiedSince = System.currentTimeMillis() + 60000;
+        File lastBuildDir = new File(new File(jobDir, BuildsManager.BUILDS_DIRNAME),
+            "2015-01-01_00-00-05");
+        new File(lastBuildDir, BuildsManager.BUILD_LOG).setLastModified(modifiedSince);
+
+        List<BuildSummary> page =
+            buildsManagerUnderTest.listBuildSummaries(jobName, 1, 0, 1, 2);
+        Assert.assertEquals(2, page.size());
+        Assert.assertEquals(3, page.get(0).getNumber());
+        Assert.assertEquals("2015-01-01_00-00-03", page.get(0).getBuildDirName());
+        Assert.assertEquals("<build>3</build>".length(), page.get(0).getSize());
+        Assert.assertEquals(4, page.get(1).getNumber());
+
+        List<BuildSummary> modified =
+            buildsManagerUnderTest.listBuildSummaries(jobName, 0, modifiedSince, 0, 10);
+        Assert.assertEquals(1, modified.size());
+        Assert.assertEquals(5, modified.get(0).getNumber());
+        Assert.assertEquals(modifiedSince / 1000, modified.get(0).getLastModified() / 1000);
+    }
+
+    @Test(timeout = 10000) public void testListBuildSummariesAfterMaxBuildNumber()
+        throws BuildsManagementException {
+        Assert.assertTrue(buildsManagerUnderTest
+            .listBuildSummaries(jobName, Integer.MAX_VALUE, 0, 0, 10).isEmpty());
+    }
+
+    @Test public void testCreateFreeStyleBuilds() throws Exception {
+        FreeStyleProject mockProject = Mockito.mock(FreeStyleProject.class);
+        Mockito.when(mockJobsManager.getFreeStyleProject(jobName)).thenReturn(mockProject);
+        Mockito.when(mockProject.getNextBuildNumber()).thenReturn(3);
+        BuildsManager spyManager = Mockito.spy(buildsManagerUnderTest);
+        List<Path> buildFolders = new ArrayList<>();
+        List<FreeStyleBuild> mockBuilds = new ArrayList<>();
+        for (int number : Arrays.asList(4, 2, 3)) {
+            Path buildFolder = Paths.get("build" + number);
+            FreeStyleBuild mockBuild = Mockito.mock(FreeStyleBuild.class);
+            Mockito.when(mockBuild.getNumber()).thenReturn(number);
+            Mockito.doReturn(mockBuild).when(spyManager)
+                .newFreeStyleBuild(mockProject, buildFolder);
+            buildFolders.add(buildFolder);
+            mockBuilds.add(mockBuild);
+        }
+        PermalinkProjectAction.Permalink lastEvenBuild = new PeepholePermalink() {
+            @Override public String getDisplayName() {
+                return "Last even build";
+            }
+
+            @Override public String getId() {
+                return "lastEvenBuild";
+            }
+
+            @Override public boolean apply(Run<?, ?> run) {
+                return run.getNumber() % 2 == 0;
+            }
+        };
+        PermalinkProjectAction.Permalink.BUILTIN.add(lastEvenBuild);
+        List<FreeStyleBuild> builds;
+        try {
+            builds = spyManager.createFreeStyleBuilds(jobName, buildFolders);
+        } finally {
+            PermalinkProjectAction.Permalink.BUILTIN.remove(lastEvenBuild);
+        }
+
+        Assert.assertEquals(Arrays.asList(mockBuilds.get(1), mockBuilds.get(2), mockBuilds.get(0)),
+            builds);
+        Mockito.verify(mockProject).updateNextBuildNumber(5);
+        Mockito.verify(mockProject).getBuildByNumber(4);
+        Mockito.verify(mockProject, Mockito.never()).getBuildByNumber(2);
+        Mockito.verify(mockBuilds.get(0)).updateSymlinks(TaskListener.NULL);
+        Mockito.verify(mockBuilds.get(1), Mockito.never()).updateSymlinks(TaskListener.NULL);
+    }
+
+    @Test public void testCreateFreeStyleBuildsWithCorruptBuild() throws Exception {
+        FreeStyleProject mockProject = Mockito.mock(FreeStyleProject.class);
+        Mockito.when(mockJobsManager.getFreeStyleProject(jobName)).thenReturn(mockProject);
+        BuildsManager spyManager = Mockito.spy(buildsManagerUnderTest);
+        FreeStyleBuild mockBuild = Mockito.mock(FreeStyleBuild.class);
+        Mockito.when(mockBuild.getNumber()).thenReturn(2);
+        IOException corruption = new IOException("Unreadable build.xml");
+        Mockito.doReturn(mockBuild).when(spyManager)
+            .newFreeStyleBuild(mockProject, Paths.get("build2"));
+        Mockito.doThrow(corruption).when(spyManager)
+            .newFreeStyleBuild(mockProject, Paths.get("build3"));
+
+        try {
+            spyManager.createFreeStyleBuilds(jobName,
+                Arrays.asList(Paths.get("build2"), Paths.get("build3")));
+            Assert.fail("A corrupt build must fail the batch");
+        } catch (BuildsManagementException e) {
+            Assert.assertEquals(jobName, e.getJobName());
+            Assert.assertSame(corruption, e.getCause());
+        }
+        Mockito.verify(mockProject, Mockito.never()).updateNextBuildNumber(Mockito.anyInt());
+        Mockito.verify(mockBuild, Mockito.never()).updateSymlinks(TaskListener.NULL);
+    }
+
+    @Test public void testDeleteBuilds() throws Exception {
+        for (int number = 2; number <= 5; number++) {
+            createBuildFiles(jobDir, number, "2015-01-01_00-00-0" + number);
+        }
+        FreeStyleProject mockProject = Mockito.mock(FreeStyleProject.class);
+        RunList mockRunList = Mockito.mock(RunList.class);
+        FreeStyleBuild mockBuild = Mockito.mock(FreeStyleBuild.class);
+        Mockito.when(mockJobsManager.getFreeStyleProject(jobName)).thenReturn(mockProject);
+        Mockito.when(mockProject.getBuilds()).thenReturn(mockRunList);
+        Mockito.when(mockProject.getBuildByNumber(3)).thenReturn(mockBuild);
+        ArtifactManager mockArtifactManager = Mockito.mock(ArtifactManager.class);
+        Mockito.when(mockBuild.getArtifactManager()).thenReturn(mockArtifactManager);
+
+        Map<Integer, BuildsManagementException> failures =
+            buildsManagerUnderTest.deleteBuilds(jobName, 2, 4);
+
+        Assert.assertTrue(failures.isEmpty());
+        Mockito.verify(mockArtifactManager).delete();
+        Mockito.verify(mockRunList).remove(mockBuild);
+        Assert.assertTrue(buildsManagerUnderTest.buildExists(jobName, buildNumber));
+        Assert.assertTrue(buildsManagerUnderTest.buildExists(jobName, 5));
+        Path buildsDir = buildsManagerUnderTest.getBuildsDir(jobName);
+        for (int number = 2; number <= 4; number++) {
+            Assert.assertFalse(buildsManagerUnderTest.buildExists(jobName, number));
+            Assert.assertFalse(Files.exists(buildsDir.resolve("2015-01-01_00-00-0" + number)));
+            Assert.assertFalse(Files.exists(buildsDir.resolve(".2015-01-01_00-00-0" + number)));
+        }
+    }
+
+    @Test public void testDeleteBuildsKeepsFailedBuildAttached() throws Exception {
+        FreeStyleProject mockProject = Mockito.mock(FreeStyleProject.class);
+        RunList mockRunList = Mockito.mock(RunList.class);
+        FreeStyleBuild mockBuild = Mockito.mock(FreeStyleBuild.class);
+        ArtifactManager mockArtifactManager = Mockito.mock(ArtifactManager.class);
+        Mockito.when(mockJobsManager.getFreeStyleProject(jobName)).thenReturn(mockProject);
+        Mockito.when(mockProject.getBuilds()).thenReturn(mockRunList);
+        Mockito.when(mockProject.getBuildByNumber(buildNumber)).thenReturn(mockBuild);
+        Mockito.when(mockBuild.getArtifactManager()).thenReturn(mockArtifactManager);
+        IOException failure = new IOException("artifacts are busy");
+        Mockito.when(mockArtifactManager.delete()).thenThrow(failure);
+
+        Map<Integer, BuildsManagementException> failures = buildsManagerUnderTest
+            .deleteBuilds(jobName, Collections.singletonList(buildNumber), 1);
+
+        Assert.assertSame(failure, failures.get(buildNumber).getCause());
+        Mockito.verify(mockRunList, Mockito.never()).remove(mockBuild);
+        Assert.assertTrue(buildsManagerUnderTest.buildExists(jobName, buildNumber));
+    }
+
     @Test public void testListBuilds() throws BuildsManagementException {
         RunList runList = Mockito.mock(RunList.class);
         Mockito.when(mockAbstractProject.getBuilds()).thenReturn(runList);
@@ -0,0 +1,99 @@
+package com.ericsson.jenkinsci.hajp.api;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeSet;
+
+public class ConfigMerkleTreeTest {
+
+    private Map<String, String> digests;
+
+    @Before public void setUp() {
+        digests = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            digests.put("job" + i, "digest" + i);
+        }
+    }
+
+    @Test public void testSameConfigsSameRoot() {
+        ConfigMerkleTree local = new ConfigMerkleTree(digests, ConfigMerkleTree.DEFAULT_DEPTH);
+        ConfigMerkleTree peer =
+            new ConfigMerkleTree(new HashMap<>(digests), ConfigMerkleTree.DEFAULT_DEPTH);
+
+        Assert.assertEquals(local.getRootHash(), peer.getRootHash());
+        Assert.assertTrue(local.diff(peer).isEmpty());
+    }
+
+    @Test public void testDiffFindsChangedAddedAndRemovedJobs() {
+        ConfigMerkleTree local = new ConfigMerkleTree(digests, ConfigMerkleTree.DEFAULT_DEPTH);
+        Map<String, String> peerDigests = new HashMap<>(digests);
+        peerDigests.put("job7", "changed");
+        peerDigests.put("peerOnly", "digest");
+        peerDigests.remove("job500");
+        CountingView peer = new CountingView(
+            new ConfigMerkleTree(peerDigests, ConfigMerkleTree.DEFAULT_DEPTH));
+
+        Assert.assertNotEquals(local.getRootHash(), peer.tree.getRootHash());
+        Assert.assertEquals(new TreeSet<>(Arrays.asList("job500", "job7", "peerOnly")),
+            local.diff(peer));
+        // the root, then one path per differing job and level, never the whole tree
+        Assert.assertTrue(peer.calls <= 1 + 3 * ConfigMerkleTree.DEFAULT_DEPTH);
+        Assert.assertTrue(peer.leafEntries < 10);
+    }
+
+    @Test public void testLeafOfJob() {
+        ConfigMerkleTree tree = new ConfigMerkleTree(digests, 2);
+        String path = ConfigMerkleTree.getPath("job42", 2);
+
+        Assert.assertEquals("digest42", tree.getLeafDigests(path).get("job42"));
+        Assert.assertEquals(tree.getHash(path),
+            tree.getChildHashes(path.substring(0, 1))[Integer.parseInt(path.substring(1), 16)]);
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void testDiffOfOtherDepth() {
+        new ConfigMerkleTree(digests, 2).diff(new ConfigMerkleTree(digests, 3));
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void testDepthTooSmall() {
+        new ConfigMerkleTree(digests, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void testDepthTooLarge() {
+        new ConfigMerkleTree(digests, ConfigMerkleTree.MAX_DEPTH + 1);
+    }
+
+    /**
+     * Peer view counting the calls, as a remote peer would count the round trips.
+     */
+    private static class CountingView implements MerkleTreeView {
+        private final ConfigMerkleTree tree;
+        private int calls;
+        private int leafEntries;
+
+        CountingView(ConfigMerkleTree tree) {
+            this.tree = tree;
+        }
+
+        @Override public int getDepth() {
+            return tree.getDepth();
+        }
+
+        @Override public String[] getChildHashes(String path) {
+            calls++;
+            return tree.getChildHashes(path);
+        }
+
+        @Override public SortedMap<String, String> getLeafDigests(String path) {
+            calls++;
+            SortedMap<String, String> leafDigests = tree.getLeafDigests(path);
+            leafEntries += leafDigests.size();
+            return leafDigests;
+        }
+    }
+}
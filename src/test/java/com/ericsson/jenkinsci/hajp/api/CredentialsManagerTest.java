@@ -107,7 +107,9 @@ import static org.junit.Assert.assertTrue;
     }
 
     @Test public void testPackSecretsDir() throws Exception {
-        unitUnderTest.packSecretsDir();
+        byte[] zipArr = unitUnderTest.packSecretsDir();
+        secretsTestContent.setLastModified(0);
+        assertTrue(Arrays.equals(zipArr, unitUnderTest.packSecretsDir()));
     }
 
     @Test public void testPackSecretKey() throws Exception {
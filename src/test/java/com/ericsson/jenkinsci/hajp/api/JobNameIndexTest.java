@@ -0,0 +1,86 @@
+package com.ericsson.jenkinsci.hajp.api;
+
+import hudson.model.FreeStyleProject;
+import hudson.model.ItemGroup;
+import hudson.model.TopLevelItem;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.TreeSet;
+
+public class JobNameIndexTest {
+
+    private final JobNameIndex indexUnderTest = new JobNameIndex();
+
+    @Test public void testPrefixQuery() {
+        indexUnderTest.replaceAll(Arrays.asList("team-a.build", "team-a.deploy", "team-ab.build",
+            "team-b.build"));
+
+        Assert.assertEquals(new TreeSet<>(Arrays.asList("team-a.build", "team-a.deploy")),
+            indexUnderTest.getJobNames("team-a."));
+        Assert.assertEquals(3, indexUnderTest.getJobNames("team-a").size());
+        Assert.assertEquals(4, indexUnderTest.getJobNames("").size());
+        Assert.assertTrue(indexUnderTest.getJobNames("team-c").isEmpty());
+    }
+
+    @Test public void testReplaceAll() {
+        indexUnderTest.add("gone");
+        indexUnderTest.add("kept");
+
+        indexUnderTest.replaceAll(Arrays.asList("kept", "new"));
+
+        Assert.assertEquals(new TreeSet<>(Arrays.asList("kept", "new")),
+            indexUnderTest.getJobNames());
+    }
+
+    @Test public void testKeptUpToDateByListener() {
+        FreeStyleProject project = mockProject("job", mockItemGroup(""));
+
+        indexUnderTest.getListener().onCreated(project);
+        Assert.assertTrue(indexUnderTest.contains("job"));
+
+        Mockito.when(project.getFullName()).thenReturn("renamed");
+        indexUnderTest.getListener().onRenamed(project, "job", "renamed");
+        Assert.assertEquals(Collections.singleton("renamed"), indexUnderTest.getJobNames());
+
+        indexUnderTest.getListener().onDeleted(project);
+        Assert.assertEquals(0, indexUnderTest.size());
+
+        // only the jobs are indexed, not the other items like folders
+        TopLevelItem folder = Mockito.mock(TopLevelItem.class);
+        Mockito.when(folder.getFullName()).thenReturn("folder");
+        indexUnderTest.getListener().onCreated(folder);
+        Assert.assertFalse(indexUnderTest.contains("folder"));
+    }
+
+    @Test public void testNestedJobKeptUpToDateByListener() {
+        FreeStyleProject project = mockProject("folder/job", mockItemGroup("folder"));
+
+        indexUnderTest.getListener().onCreated(project);
+        Assert.assertEquals(Collections.singleton("folder/job"), indexUnderTest.getJobNames());
+
+        Mockito.when(project.getFullName()).thenReturn("folder/renamed");
+        indexUnderTest.getListener().onRenamed(project, "job", "renamed");
+        Assert.assertEquals(Collections.singleton("folder/renamed"),
+            indexUnderTest.getJobNames());
+
+        indexUnderTest.getListener().onDeleted(project);
+        Assert.assertEquals(0, indexUnderTest.size());
+    }
+
+    private static FreeStyleProject mockProject(String fullName, ItemGroup parent) {
+        FreeStyleProject project = Mockito.mock(FreeStyleProject.class);
+        Mockito.when(project.getFullName()).thenReturn(fullName);
+        Mockito.when(project.getParent()).thenReturn(parent);
+        return project;
+    }
+
+    private static ItemGroup mockItemGroup(String fullName) {
+        ItemGroup itemGroup = Mockito.mock(ItemGroup.class);
+        Mockito.when(itemGroup.getFullName()).thenReturn(fullName);
+        return itemGroup;
+    }
+}
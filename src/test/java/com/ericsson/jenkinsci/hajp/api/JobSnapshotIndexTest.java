@@ -0,0 +1,113 @@
+package com.ericsson.jenkinsci.hajp.api;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class JobSnapshotIndexTest {
+    private static final String CONFIG = "<?xml version='1.0' encoding='UTF-8'?>\n"
+        + "<!-- freestyle -->\n<project>\n  <disabled>true</disabled>\n</project>";
+
+    @Rule public TemporaryFolder rule = new TemporaryFolder();
+
+    private Path indexFile;
+    private JobSnapshotIndex indexUnderTest;
+
+    @Before public void setUp() throws IOException {
+        indexFile = rule.getRoot().toPath().resolve(JobSnapshotIndex.INDEX_FILENAME);
+        indexUnderTest = new JobSnapshotIndex(indexFile);
+    }
+
+    @After public void tearDown() throws IOException {
+        indexUnderTest.close();
+    }
+
+    private JobSnapshotIndex reopen() throws IOException {
+        indexUnderTest.close();
+        indexUnderTest = new JobSnapshotIndex(indexFile);
+        return indexUnderTest;
+    }
+
+    @Test public void testSnapshotOfConfig() {
+        JobSnapshot snapshot = JobSnapshot.of("job", CONFIG.getBytes());
+
+        Assert.assertEquals("job", snapshot.getName());
+        Assert.assertEquals("project", snapshot.getType());
+        Assert.assertTrue(snapshot.isDisabled());
+        Assert.assertEquals(64, snapshot.getConfigDigest().length());
+        Assert.assertFalse(JobSnapshot.of("job", "<project/>".getBytes()).isDisabled());
+    }
+
+    @Test public void testSnapshotIgnoresNestedDisabled() {
+        String config = "<project>\n  <triggers>\n"
+            + "    <trigger><disabled>true</disabled></trigger>\n"
+            + "  </triggers>\n  <disabled>false</disabled>\n</project>";
+
+        Assert.assertFalse(JobSnapshot.of("job", config.getBytes()).isDisabled());
+    }
+
+    @Test public void testPutAndRemoveSurviveReopen() throws IOException {
+        indexUnderTest.put(JobSnapshot.of("a", CONFIG.getBytes()));
+        indexUnderTest.put(JobSnapshot.of("b", "<project/>".getBytes()));
+        indexUnderTest.put(JobSnapshot.of("a", "<matrix-project/>".getBytes()));
+        indexUnderTest.remove("b");
+
+        JobSnapshotIndex reopened = reopen();
+
+        Assert.assertEquals(Collections.singleton("a"), reopened.getJobNames());
+        Assert.assertEquals("matrix-project", reopened.get("a").getType());
+        Assert.assertFalse(reopened.contains("b"));
+    }
+
+    @Test public void testTornRecordDropped() throws IOException {
+        indexUnderTest.put(JobSnapshot.of("a", CONFIG.getBytes()));
+        long size = Files.size(indexFile);
+        indexUnderTest.put(JobSnapshot.of("b", CONFIG.getBytes()));
+        indexUnderTest.close();
+        FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.WRITE);
+        try {
+            channel.truncate(Files.size(indexFile) - 3);
+        } finally {
+            channel.close();
+        }
+
+        indexUnderTest = new JobSnapshotIndex(indexFile);
+
+        Assert.assertEquals(Collections.singleton("a"), indexUnderTest.getJobNames());
+        Assert.assertEquals(size, Files.size(indexFile));
+        indexUnderTest.put(JobSnapshot.of("c", CONFIG.getBytes()));
+        Assert.assertEquals(Arrays.asList("a", "c"),
+            Arrays.asList(reopen().getJobNames().toArray()));
+    }
+
+    @Test public void testCompactedOnManyUpdates() throws IOException {
+        for (int i = 0; i < 3000; i++) {
+            indexUnderTest.put(JobSnapshot.of("job" + (i % 3), ("<project>" + i + "</project>")
+                .getBytes()));
+        }
+
+        Assert.assertTrue(Files.size(indexFile) < 1100 * 100);
+        Assert.assertEquals(3, reopen().getSnapshots().size());
+        Assert.assertEquals(JobSnapshot.of("job2", "<project>2999</project>".getBytes())
+            .getConfigDigest(), indexUnderTest.get("job2").getConfigDigest());
+    }
+
+    @Test public void testReplaceAll() throws IOException {
+        indexUnderTest.put(JobSnapshot.of("a", CONFIG.getBytes()));
+
+        indexUnderTest.replaceAll(Arrays.asList(JobSnapshot.of("b", CONFIG.getBytes())));
+
+        Assert.assertEquals(Collections.singleton("b"), reopen().getJobNames());
+    }
+}
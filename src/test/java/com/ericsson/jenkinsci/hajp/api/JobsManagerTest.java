@@ -1,32 +1,49 @@
 package com.ericsson.jenkinsci.hajp.api;
 
+import com.ericsson.jenkinsci.hajp.api.files.DeltaUtil;
+import com.ericsson.jenkinsci.hajp.api.files.FileSignature;
 import hudson.XmlFile;
 import hudson.model.AbstractProject;
 import hudson.model.FreeStyleProject;
 import hudson.model.Items;
+import hudson.model.Job;
 import hudson.model.TopLevelItem;
+import hudson.security.ACL;
 import hudson.util.IOUtils;
 import jenkins.model.AbstractTopLevelItem;
 import jenkins.model.Jenkins;
+import org.acegisecurity.Authentication;
+import org.acegisecurity.context.SecurityContextHolder;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 import org.powermock.reflect.Whitebox;
 
 import javax.servlet.ServletContext;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
 
 import static org.junit.Assert.assertEquals;
 
@@ -118,6 +135,27 @@ public class JobsManagerTest {
         unitUnderTest.updateJobConfig(MOCK_JOB_NAME, mockXmlFile.asString());
     }
 
+    @Test public void testUpdateJobConfigFromDelta() throws Exception {
+        tmpFile.create();
+        File file = tmpFile.newFile("config.xml");
+        Files.write(file.toPath(), "<project><disabled>false</disabled></project>".getBytes());
+        File incoming = tmpFile.newFile("incoming.xml");
+        Files.write(incoming.toPath(), "<project><disabled>true</disabled></project>".getBytes());
+        XmlFile xmlfile = new XmlFile(file);
+        Mockito.when(mockFreeStyleProject.getConfigFile()).thenReturn(xmlfile);
+        Mockito.when(mockJenkins.getItem(MOCK_JOB_NAME)).thenReturn(mockFreeStyleProject);
+        Mockito.when(Items.getConfigFile(mockFreeStyleProject)).thenReturn(xmlfile);
+
+        FileSignature signature = unitUnderTest.getJobConfigSignature(MOCK_JOB_NAME);
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        new DeltaUtil().delta(incoming.toPath(), signature, delta);
+        unitUnderTest.updateJobConfig(MOCK_JOB_NAME, new ByteArrayInputStream(delta.toByteArray()));
+
+        assertEquals("<project><disabled>true</disabled></project>",
+            new String(Files.readAllBytes(file.toPath())));
+        Mockito.verify(mockFreeStyleProject).doReload();
+    }
+
     @Test public void testRenameJob() throws Exception {
         Mockito.when(mockJenkins.getItem(MOCK_JOB_NAME)).thenReturn(mockFreeStyleProject);
         unitUnderTest.renameJob(MOCK_JOB_NAME, MOCK_JOB_NAME);
@@ -160,4 +198,261 @@ public class JobsManagerTest {
             throw new IllegalStateException("Temp Jobs Folder can not be created");
         }
     }
+
+    @Test public void testLoadAllJobsProgressivelyWithFailingJob() throws Exception {
+        File rootDir = tmpFile.newFolder("root");
+        File goodJob = new File(rootDir, "jobs/good");
+        File badJob = new File(rootDir, "jobs/bad");
+        goodJob.mkdirs();
+        badJob.mkdirs();
+        Mockito.when(mockJenkins.getRootDir()).thenReturn(rootDir);
+        Mockito.when(Items.load(mockJenkins, goodJob)).thenReturn(mockFreeStyleProject);
+        Mockito.when(Items.load(mockJenkins, badJob)).thenThrow(new IOException("corrupted"));
+
+        final List<Authentication> putAuthentications = new ArrayList<>();
+        Mockito.when(mockJenkins.putItem(mockFreeStyleProject)).thenAnswer(new Answer<Object>() {
+            @Override public Object answer(InvocationOnMock invocation) {
+                putAuthentications.add(SecurityContextHolder.getContext().getAuthentication());
+                return null;
+            }
+        });
+
+        Map<String, JobManagementException> failures = unitUnderTest.loadAllJobs(2, true);
+
+        assertEquals(1, failures.size());
+        assertEquals("bad", failures.get("bad").getItemName());
+        Mockito.verify(mockJenkins).putItem(mockFreeStyleProject);
+        // registered as SYSTEM, the pool threads having no security context of their own
+        assertEquals(Collections.singletonList(ACL.SYSTEM), putAuthentications);
+        // available from the start, never showing it is loading
+        Mockito.verify(mockServletContext, Mockito.times(2))
+            .setAttribute(JobsManager.ATTRIBUTE_APP, mockJenkins);
+        Mockito.verifyNoMoreInteractions(mockServletContext);
+    }
+
+    @Test public void testLoadAllJobsProgressivelyWithRegisteredJob() throws Exception {
+        File rootDir = tmpFile.newFolder("root");
+        File registeredJob = new File(rootDir, "jobs/registered");
+        File newJob = new File(rootDir, "jobs/new");
+        registeredJob.mkdirs();
+        newJob.mkdirs();
+        Mockito.when(mockJenkins.getRootDir()).thenReturn(rootDir);
+        Mockito.when(mockJenkins.getItem("registered")).thenReturn(mockTopLevelItem);
+        Mockito.when(Items.load(mockJenkins, newJob)).thenReturn(mockFreeStyleProject);
+
+        assertEquals(0, unitUnderTest.loadAllJobs(2, true).size());
+
+        Mockito.verify(mockJenkins).putItem(mockFreeStyleProject);
+        Mockito.verify(mockJenkins, Mockito.never()).putItem(mockTopLevelItem);
+        PowerMockito.verifyStatic(Mockito.never());
+        Items.load(mockJenkins, registeredJob);
+    }
+
+    @Test public void testLoadAllJobsWithFailingJob() throws Exception {
+        File rootDir = tmpFile.newFolder("root");
+        File goodJob = new File(rootDir, "jobs/good");
+        File badJob = new File(rootDir, "jobs/bad");
+        goodJob.mkdirs();
+        badJob.mkdirs();
+        Mockito.when(mockJenkins.getRootDir()).thenReturn(rootDir);
+        Mockito.when(Items.load(mockJenkins, goodJob)).thenReturn(mockFreeStyleProject);
+        Mockito.when(Items.load(mockJenkins, badJob)).thenThrow(new IOException("corrupted"));
+
+        try {
+            unitUnderTest.loadAllJobs();
+            Assert.fail("The failing job should be reported");
+        } catch (JobManagementException e) {
+            assertEquals("bad", ((JobManagementException) e.getCause()).getItemName());
+        }
+        PowerMockito.verifyStatic();
+        Items.load(mockJenkins, goodJob);
+        Mockito.verify(mockJenkins, Mockito.never()).putItem(mockFreeStyleProject);
+        Mockito.verify(mockServletContext).setAttribute(JobsManager.ATTRIBUTE_APP, mockJenkins);
+    }
+
+    @Test public void testJobsAnsweredFromSnapshotIndex() throws Exception {
+        File rootDir = tmpFile.newFolder("root");
+        File jobDir = new File(rootDir, "jobs/indexed");
+        jobDir.mkdirs();
+        Files.write(new File(jobDir, JobsManager.CONFIG_FILENAME).toPath(),
+            "<project/>".getBytes());
+        Mockito.when(mockJenkins.getRootDir()).thenReturn(rootDir);
+        Mockito.when(mockJenkins.getJobNames()).thenReturn(Collections.singleton("loaded"));
+        JobSnapshotIndex index = new JobSnapshotIndex(rootDir.toPath().resolve("index"));
+        unitUnderTest.setSnapshotIndex(index);
+
+        unitUnderTest.snapshotAllJobs();
+
+        Assert.assertTrue(unitUnderTest.jobExists("indexed"));
+        Assert.assertTrue(unitUnderTest.jobExists("loaded"));
+        Assert.assertFalse(unitUnderTest.jobExists("other"));
+        assertEquals(new TreeSet<>(Arrays.asList("indexed", "loaded")),
+            unitUnderTest.getJobNames());
+        assertEquals(JobSnapshot.of("indexed", "<project/>".getBytes()).getConfigDigest(),
+            unitUnderTest.getJobConfigDigest("indexed"));
+        index.close();
+    }
+
+    @Test public void testSnapshotKeptOnCreateAndDelete() throws Exception {
+        JobSnapshotIndex index = new JobSnapshotIndex(tmpFile.getRoot().toPath().resolve("index"));
+        unitUnderTest.setSnapshotIndex(index);
+        Mockito.when(mockJenkins.getItem(MOCK_JOB_NAME)).thenReturn(mockItem);
+        File rootDir = tmpFile.newFolder("root");
+        Mockito.when(mockJenkins.getRootDir()).thenReturn(rootDir);
+        final File configFile = new File(rootDir, "jobs/" + MOCK_JOB_NAME + "/config.xml");
+        final String savedXml = "<?xml version='1.0' encoding='UTF-8'?>\n" + XML_FILE_CONTENT;
+        Mockito.when(mockJenkins
+            .createProjectFromXML(Mockito.eq(MOCK_JOB_NAME), Mockito.any(InputStream.class)))
+            .thenAnswer(new Answer<TopLevelItem>() {
+                @Override public TopLevelItem answer(InvocationOnMock invocation)
+                    throws IOException {
+                    // saved by Jenkins as it serializes the job, not as it was given
+                    configFile.getParentFile().mkdirs();
+                    Files.write(configFile.toPath(), savedXml.getBytes());
+                    return mockItem;
+                }
+            });
+
+        unitUnderTest.createJob(MOCK_JOB_NAME, XML_FILE_CONTENT);
+        Assert.assertTrue(index.contains(MOCK_JOB_NAME));
+        assertEquals(JobSnapshot.of(MOCK_JOB_NAME, savedXml.getBytes()).getConfigDigest(),
+            index.get(MOCK_JOB_NAME).getConfigDigest());
+        unitUnderTest.deleteJob(MOCK_JOB_NAME);
+        Assert.assertFalse(index.contains(MOCK_JOB_NAME));
+        index.close();
+    }
+
+    @Test public void testLazyJobLoadedOnFirstAccess() throws Exception {
+        File rootDir = tmpFile.newFolder("root");
+        Mockito.when(mockJenkins.getRootDir()).thenReturn(rootDir);
+        File jobDir = new File(rootDir, "jobs/lazyJob");
+        Mockito.when(Items.load(mockJenkins, jobDir)).thenReturn(mockFreeStyleProject);
+        unitUnderTest.setLazy(true);
+
+        unitUnderTest.createJob("lazyJob", XML_FILE_CONTENT);
+
+        Mockito.verify(mockJenkins, Mockito.never())
+            .createProjectFromXML(Mockito.anyString(), Mockito.any(InputStream.class));
+        assertEquals(XML_FILE_CONTENT,
+            new String(Files.readAllBytes(new File(jobDir, JobsManager.CONFIG_FILENAME).toPath())));
+        Assert.assertTrue(unitUnderTest.jobExists("lazyJob"));
+        assertEquals(Collections.singleton("lazyJob"), unitUnderTest.getPendingJobNames());
+
+        assertEquals(mockFreeStyleProject, unitUnderTest.getTopLevelItem("lazyJob"));
+
+        Mockito.verify(mockJenkins).putItem(mockFreeStyleProject);
+        Assert.assertTrue(unitUnderTest.getPendingJobNames().isEmpty());
+    }
+
+    @Test public void testLazyLoadAllJobsThenWarmUp() throws Exception {
+        File rootDir = tmpFile.newFolder("root");
+        Mockito.when(mockJenkins.getRootDir()).thenReturn(rootDir);
+        List<File> jobDirs = new ArrayList<>();
+        for (String jobName : Arrays.asList("a", "b", "c")) {
+            File jobDir = new File(rootDir, "jobs/" + jobName);
+            jobDir.mkdirs();
+            Files.write(new File(jobDir, JobsManager.CONFIG_FILENAME).toPath(),
+                "<project/>".getBytes());
+            jobDirs.add(jobDir);
+        }
+        final List<String> loaded = new ArrayList<>();
+        for (final File jobDir : jobDirs) {
+            Mockito.when(Items.load(mockJenkins, jobDir)).thenAnswer(new Answer<Object>() {
+                @Override public Object answer(InvocationOnMock invocation) {
+                    loaded.add(jobDir.getName());
+                    return mockFreeStyleProject;
+                }
+            });
+        }
+        unitUnderTest.setLazy(true);
+
+        assertEquals(0, unitUnderTest.loadAllJobs(2, false).size());
+        assertEquals(new TreeSet<>(Arrays.asList("a", "b", "c")),
+            unitUnderTest.getPendingJobNames());
+        Assert.assertTrue(loaded.isEmpty());
+
+        assertEquals(0, unitUnderTest.warmUpJobs(Arrays.asList("c", "a")).size());
+
+        assertEquals(Arrays.asList("c", "a", "b"), loaded);
+        Assert.assertTrue(unitUnderTest.getPendingJobNames().isEmpty());
+    }
+
+    @Test public void testDeletePendingJob() throws Exception {
+        File rootDir = tmpFile.newFolder("root");
+        Mockito.when(mockJenkins.getRootDir()).thenReturn(rootDir);
+        unitUnderTest.setLazy(true);
+        unitUnderTest.createJob("lazyJob", XML_FILE_CONTENT);
+
+        unitUnderTest.deleteJob("lazyJob");
+
+        Assert.assertFalse(new File(rootDir, "jobs/lazyJob").exists());
+        Assert.assertFalse(unitUnderTest.jobExists("lazyJob"));
+    }
+
+    @Test public void testJobNamesIndexedOnce() throws Exception {
+        Mockito.when(mockJenkins.getJobNames())
+            .thenReturn(Arrays.asList("team-a.build", "team-a.deploy", "team-b.build"));
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(unitUnderTest.jobExists("team-a.build"));
+        }
+        unitUnderTest.createJob("team-a.test", XML_FILE_CONTENT);
+
+        assertEquals(new TreeSet<>(Arrays.asList("team-a.build", "team-a.deploy", "team-a.test")),
+            unitUnderTest.getJobNames("team-a."));
+        Mockito.verify(mockJenkins, Mockito.times(1)).getJobNames();
+    }
+
+    @Test public void testJobExistsByFullNameOnly() throws Exception {
+        Mockito.when(mockJenkins.getJobNames()).thenReturn(Collections.<String>emptyList());
+        Mockito.when(mockJenkins.getItem("folder")).thenReturn(mockItem);
+        Mockito.when(mockJenkins.getItemByFullName("folder/nested", Job.class))
+            .thenReturn(mockFreeStyleProject);
+
+        Assert.assertFalse(unitUnderTest.jobExists("folder"));
+        Assert.assertTrue(unitUnderTest.jobExists("folder/nested"));
+        assertEquals(Collections.singleton("folder/nested"), unitUnderTest.getJobNames());
+    }
+
+    @Test public void testJobConfigDigestReadsLiveNestedConfig() throws Exception {
+        JobSnapshotIndex index = new JobSnapshotIndex(tmpFile.getRoot().toPath().resolve("index"));
+        unitUnderTest.setSnapshotIndex(index);
+        File jobDir = tmpFile.newFolder("root", "jobs", "folder", "jobs", "nested");
+        Path configFile = new File(jobDir, JobsManager.CONFIG_FILENAME).toPath();
+        Files.write(configFile, "<project/>".getBytes());
+        Mockito.when(mockFreeStyleProject.getRootDir()).thenReturn(jobDir);
+        Mockito.when(mockJenkins.getItemByFullName("folder/nested", Job.class))
+            .thenReturn(mockFreeStyleProject);
+        index.put(JobSnapshot.of("folder/nested", "<project/>".getBytes()));
+
+        // changed from the UI, behind the back of the snapshot index
+        Files.write(configFile, "<project><disabled>true</disabled></project>".getBytes());
+        JobSnapshot live = JobSnapshot.of("folder/nested", Files.readAllBytes(configFile));
+
+        assertEquals(live.getConfigDigest(), unitUnderTest.getJobConfigDigest("folder/nested"));
+        Assert.assertTrue(index.get("folder/nested").isDisabled());
+        index.close();
+    }
+
+    @Test public void testOnlyDifferingJobConfigsFetched() throws Exception {
+        File rootDir = tmpFile.newFolder("root");
+        Mockito.when(mockJenkins.getRootDir()).thenReturn(rootDir);
+        Mockito.when(mockJenkins.getJobNames()).thenReturn(Arrays.asList("a", "b"));
+        for (String jobName : Arrays.asList("a", "b")) {
+            File jobDir = new File(rootDir, "jobs/" + jobName);
+            jobDir.mkdirs();
+            Files.write(new File(jobDir, JobsManager.CONFIG_FILENAME).toPath(),
+                ("<project>" + jobName + "</project>").getBytes());
+        }
+        Map<String, String> peerDigests = unitUnderTest.getJobConfigDigests();
+        peerDigests.put("b", JobSnapshot.of("b", "<project/>".getBytes()).getConfigDigest());
+        ConfigMerkleTree peerTree =
+            new ConfigMerkleTree(peerDigests, ConfigMerkleTree.DEFAULT_DEPTH);
+
+        Map<String, String> configs =
+            unitUnderTest.getJobsXmlAsMap(unitUnderTest.getJobConfigTree().diff(peerTree));
+
+        assertEquals(1, configs.size());
+        assertEquals("<project>b</project>", configs.get("b"));
+    }
 }
@@ -0,0 +1,159 @@
+package com.ericsson.jenkinsci.hajp.api;
+
+import com.ericsson.jenkinsci.hajp.api.files.BuildManifest;
+import com.ericsson.jenkinsci.hajp.api.files.CapturePolicy;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import jenkins.util.VirtualFile;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class LazyArtifactManagerTest {
+
+    @Rule public TemporaryFolder rule = new TemporaryFolder();
+
+    private Path peerArchiveDir;
+    private File buildDir;
+    private LazyArtifactManager managerUnderTest;
+    private final List<String> fetched = new ArrayList<>();
+
+    @Before public void setUp() throws Exception {
+        peerArchiveDir = rule.newFolder("peer", "archive").toPath();
+        Files.write(peerArchiveDir.resolve("app.jar"), "jar content".getBytes());
+        Files.createDirectories(peerArchiveDir.resolve("docs"));
+        Files.write(peerArchiveDir.resolve("docs/index.html"), "<html/>".getBytes());
+
+        buildDir = rule.newFolder("build");
+        LazyArtifactManager.saveManifest(buildDir.toPath(),
+            BuildManifest.of(peerArchiveDir, CapturePolicy.FULL));
+        LazyArtifactManager.setFetcher(new ArtifactFetcher() {
+            @Override public InputStream fetch(String jobName, int buildNumber,
+                String relativePath) throws IOException {
+                fetched.add(jobName + "#" + buildNumber + ":" + relativePath);
+                return Files.newInputStream(peerArchiveDir.resolve(relativePath));
+            }
+        });
+
+        FreeStyleProject project = Mockito.mock(FreeStyleProject.class);
+        Mockito.when(project.getName()).thenReturn("job");
+        FreeStyleBuild build = Mockito.mock(FreeStyleBuild.class);
+        Mockito.when(build.getRootDir()).thenReturn(buildDir);
+        Mockito.when(build.getNumber()).thenReturn(7);
+        Mockito.when(build.getParent()).thenReturn(project);
+        managerUnderTest = new LazyArtifactManager();
+        managerUnderTest.onLoad(build);
+    }
+
+    @After public void tearDown() {
+        LazyArtifactManager.setFetcher(null);
+    }
+
+    @Test public void testArtifactsListedBeforeFetch() throws IOException {
+        VirtualFile root = managerUnderTest.root();
+
+        Assert.assertTrue(root.isDirectory());
+        Assert.assertEquals(2, root.list().length);
+        Assert.assertTrue(root.child("docs").isDirectory());
+        Assert.assertTrue(root.child("app.jar").isFile());
+        Assert.assertEquals("jar content".length(), root.child("app.jar").length());
+        Assert.assertEquals(Arrays.asList("docs/index.html"),
+            Arrays.asList(root.list("**/*.html")));
+        Assert.assertFalse(new File(buildDir, "archive").exists());
+        Assert.assertTrue(fetched.isEmpty());
+    }
+
+    @Test public void testArtifactFetchedOnFirstOpen() throws IOException {
+        VirtualFile artifact = managerUnderTest.root().child("docs").child("index.html");
+
+        for (int i = 0; i < 2; i++) {
+            InputStream is = artifact.open();
+            try {
+                Assert.assertEquals("<html/>", IOUtils.toString(is));
+            } finally {
+                is.close();
+            }
+        }
+
+        Assert.assertEquals(Arrays.asList("job#7:docs/index.html"), fetched);
+        Assert.assertTrue(new File(buildDir, "archive/docs/index.html").isFile());
+    }
+
+    @Test(expected = IOException.class) public void testFetchedArtifactNotMatchingManifest()
+        throws IOException {
+        Files.write(peerArchiveDir.resolve("app.jar"), "other content".getBytes());
+        try {
+            managerUnderTest.root().child("app.jar").open();
+        } finally {
+            Assert.assertFalse(new File(buildDir, "archive/app.jar").exists());
+        }
+    }
+
+    @Test(expected = IOException.class) public void testFetchOutsideArchiveDir()
+        throws IOException {
+        managerUnderTest.fetch("../build.xml");
+    }
+
+    @Test(timeout = 10000) public void testSlowFetchDoesNotBlockOtherArtifacts()
+        throws Exception {
+        final CountDownLatch downloading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        LazyArtifactManager.setFetcher(new ArtifactFetcher() {
+            @Override public InputStream fetch(String jobName, int buildNumber,
+                String relativePath) throws IOException {
+                if (relativePath.equals("app.jar")) {
+                    downloading.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                return Files.newInputStream(peerArchiveDir.resolve(relativePath));
+            }
+        });
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<File> slowFetch = executor.submit(new Callable<File>() {
+                @Override public File call() throws IOException {
+                    return managerUnderTest.fetch("app.jar");
+                }
+            });
+            downloading.await();
+
+            Assert.assertTrue(managerUnderTest.fetch("docs/index.html").isFile());
+            release.countDown();
+            Assert.assertTrue(slowFetch.get().isFile());
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test public void testDelete() throws Exception {
+        managerUnderTest.fetch("app.jar");
+
+        Assert.assertTrue(managerUnderTest.delete());
+        Assert.assertFalse(new File(buildDir, "archive").exists());
+        Assert.assertFalse(new File(buildDir, LazyArtifactManager.ARTIFACTS_MANIFEST).exists());
+    }
+}
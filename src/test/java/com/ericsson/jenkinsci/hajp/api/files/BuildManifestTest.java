@@ -0,0 +1,62 @@
+package com.ericsson.jenkinsci.hajp.api.files;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.SortedSet;
+
+public class BuildManifestTest {
+
+    @Rule public TemporaryFolder rule = new TemporaryFolder();
+
+    private File buildDir;
+
+    @Before
+    public void before() throws IOException {
+        buildDir = rule.newFolder("build");
+        Files.write(new File(buildDir, "build.xml").toPath(), "<build/>".getBytes());
+        Files.write(new File(buildDir, "log").toPath(), "line1\n".getBytes());
+        File dir = new File(buildDir, "junitResult");
+        dir.mkdir();
+        Files.write(new File(dir, "result.xml").toPath(), "<result/>".getBytes());
+        File archive = new File(buildDir, ZipUtil.ARCHIVE_FILENAME);
+        archive.mkdir();
+        Files.write(new File(archive, "artifact.jar").toPath(), "jar".getBytes());
+    }
+
+    @Test
+    public void testManifestEntries() throws IOException {
+        BuildManifest manifest = BuildManifest.of(buildDir.toPath());
+
+        Assert.assertEquals(Arrays.asList("build.xml", "junitResult/result.xml", "log"),
+            Arrays.asList(manifest.getEntries().keySet().toArray()));
+        BuildManifest.Entry log = manifest.getEntries().get("log");
+        Assert.assertEquals(6, log.getSize());
+        Assert.assertNotNull(log.getHash());
+    }
+
+    @Test
+    public void testDiffWithNoRemoteManifest() throws IOException {
+        BuildManifest manifest = BuildManifest.of(buildDir.toPath());
+
+        Assert.assertEquals(manifest.getEntries().keySet(), manifest.diff(null));
+    }
+
+    @Test
+    public void testDiffOnlyReportsChangedFiles() throws IOException {
+        BuildManifest remote = BuildManifest.of(buildDir.toPath());
+        Files.write(new File(buildDir, "log").toPath(), "line1\nline2\n".getBytes());
+        Files.write(new File(buildDir, "changelog.xml").toPath(), "<log/>".getBytes());
+
+        SortedSet<String> diff = BuildManifest.of(buildDir.toPath()).diff(remote);
+
+        Assert.assertEquals(Arrays.asList("changelog.xml", "log"), Arrays.asList(diff.toArray()));
+    }
+}
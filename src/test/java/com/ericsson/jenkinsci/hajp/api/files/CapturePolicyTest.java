@@ -0,0 +1,88 @@
+package com.ericsson.jenkinsci.hajp.api.files;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class CapturePolicyTest {
+
+    @Rule public TemporaryFolder rule = new TemporaryFolder();
+
+    private ZipUtil zipUtil = new ZipUtil();
+    private File buildDir;
+
+    @Before
+    public void before() throws IOException {
+        buildDir = rule.newFolder("build");
+        Files.write(new File(buildDir, "build.xml").toPath(), "<build/>".getBytes());
+        Files.write(new File(buildDir, "changelog.xml").toPath(), "<log/>".getBytes());
+        Files.write(new File(buildDir, "log").toPath(), new byte[4096]);
+        File dir = new File(buildDir, "junitResult");
+        dir.mkdir();
+        Files.write(new File(dir, "result.xml").toPath(), "<result/>".getBytes());
+        File archive = new File(buildDir, ZipUtil.ARCHIVE_FILENAME);
+        archive.mkdir();
+        Files.write(new File(archive, "artifact.jar").toPath(), "jar".getBytes());
+    }
+
+    @Test
+    public void testDefaultPolicy() {
+        Assert.assertFalse(CapturePolicy.DEFAULT.acceptsDirectory("archive"));
+        Assert.assertFalse(CapturePolicy.DEFAULT.acceptsDirectory("dir/archive"));
+        Assert.assertTrue(CapturePolicy.DEFAULT.acceptsDirectory("junitResult"));
+        Assert.assertTrue(CapturePolicy.DEFAULT.acceptsFile("junitResult/result.xml", 10));
+        Assert.assertTrue(CapturePolicy.FULL.acceptsDirectory("archive"));
+        Assert.assertTrue(CapturePolicy.FULL.isFull());
+    }
+
+    @Test
+    public void testIncludesExcludesAndSizeCap() {
+        CapturePolicy policy = new CapturePolicy(Arrays.asList("*.xml", "**/*.xml"),
+            Collections.singletonList("junitResult/**"), 100);
+
+        Assert.assertTrue(policy.acceptsFile("build.xml", 10));
+        Assert.assertTrue(policy.acceptsFile("dir/report.xml", 10));
+        Assert.assertFalse(policy.acceptsFile("build.xml", 101));
+        Assert.assertFalse(policy.acceptsFile("log", 10));
+        Assert.assertFalse(policy.acceptsFile("junitResult/result.xml", 10));
+        Assert.assertFalse(policy.capturesDirectories());
+    }
+
+    @Test
+    public void testZipMetadataOnly() throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        zipUtil.zip(buildDir.toPath(), CapturePolicy.METADATA_ONLY, os);
+        File dir = rule.newFolder("metadata");
+        zipUtil.unzip(new ByteArrayInputStream(os.toByteArray()), dir.toPath());
+
+        Assert.assertEquals(Arrays.asList("build.xml", "changelog.xml"),
+            Arrays.asList(BuildManifest.of(dir.toPath()).getEntries().keySet().toArray()));
+    }
+
+    @Test
+    public void testZipWithSizeCap() throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        CapturePolicy policy =
+            new CapturePolicy(Collections.<String>emptyList(), Collections.<String>emptyList(),
+                1024);
+        zipUtil.zip(buildDir.toPath(), policy, os);
+        File dir = rule.newFolder("capped");
+        zipUtil.unzip(new ByteArrayInputStream(os.toByteArray()), dir.toPath());
+
+        Assert.assertFalse(new File(dir, "log").exists());
+        Assert.assertTrue(new File(dir, "junitResult/result.xml").isFile());
+        Assert.assertTrue(new File(dir, "archive/artifact.jar").isFile());
+        Assert.assertEquals(BuildManifest.of(buildDir.toPath(), policy).getEntries().keySet(),
+            BuildManifest.of(dir.toPath(), CapturePolicy.FULL).getEntries().keySet());
+    }
+}
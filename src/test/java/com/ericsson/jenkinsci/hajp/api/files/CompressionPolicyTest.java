@@ -0,0 +1,103 @@
+package com.ericsson.jenkinsci.hajp.api.files;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+public class CompressionPolicyTest {
+
+    @Rule public TemporaryFolder rule = new TemporaryFolder();
+
+    private File buildDir;
+
+    @Before
+    public void before() throws IOException {
+        buildDir = rule.newFolder("build");
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            log.append("[INFO] Building module ").append(i).append('\n');
+        }
+        Files.write(new File(buildDir, "log").toPath(), log.toString().getBytes());
+        byte[] random = new byte[8192];
+        new Random(42).nextBytes(random);
+        Files.write(new File(buildDir, "app.jar").toPath(), random);
+        Files.write(new File(buildDir, "data.bin").toPath(), random);
+    }
+
+    @Test
+    public void testDefaultPolicy() throws IOException {
+        CompressionPolicy policy = CompressionPolicy.DEFAULT;
+
+        Assert.assertEquals(ZipEntry.DEFLATED, policy.getMethod(new File(buildDir, "log")));
+        Assert.assertEquals(ZipEntry.STORED, policy.getMethod(new File(buildDir, "app.jar")));
+        Assert.assertEquals(ZipEntry.STORED, policy.getMethod(new File(buildDir, "data.bin")));
+        Assert.assertTrue(CompressionPolicy.sampleEntropy(new File(buildDir, "data.bin"))
+            > CompressionPolicy.INCOMPRESSIBLE_ENTROPY);
+        Assert.assertTrue(CompressionPolicy.sampleEntropy(new File(buildDir, "log"))
+            < CompressionPolicy.INCOMPRESSIBLE_ENTROPY);
+    }
+
+    @Test
+    public void testTextDeflateLevel() {
+        CompressionPolicy policy =
+            new CompressionPolicy(Collections.<String>emptySet(), false, Deflater.BEST_SPEED,
+                Deflater.BEST_COMPRESSION);
+
+        Assert.assertEquals(Deflater.BEST_COMPRESSION, policy.getLevel(new File("log")));
+        Assert.assertEquals(Deflater.BEST_COMPRESSION, policy.getLevel(new File("junit.xml")));
+        Assert.assertEquals(Deflater.BEST_SPEED, policy.getLevel(new File("app.jar")));
+    }
+
+    @Test
+    public void testZipStoresIncompressibleEntries() throws Exception {
+        File zipFile = rule.newFile("build.zip");
+        OutputStream os = new FileOutputStream(zipFile);
+        new ZipUtil().zip(buildDir.toPath(), os);
+        os.close();
+
+        ZipFile zip = new ZipFile(zipFile);
+        try {
+            Assert.assertEquals(ZipEntry.DEFLATED, zip.getEntry("log").getMethod());
+            ZipArchiveEntry jar = zip.getEntry("app.jar");
+            Assert.assertEquals(ZipEntry.STORED, jar.getMethod());
+            Assert.assertEquals(jar.getSize(), jar.getCompressedSize());
+            Assert.assertEquals(ZipEntry.STORED, zip.getEntry("data.bin").getMethod());
+        } finally {
+            zip.close();
+        }
+        File dir = rule.newFolder("unzipped");
+        new ZipUtil().unzip(zipFile.toPath(), dir.toPath());
+        Assert.assertTrue(BuildManifest.of(buildDir.toPath()).diff(BuildManifest.of(dir.toPath()))
+            .isEmpty());
+    }
+
+    @Test
+    public void testStreamCodecs() throws Exception {
+        ZipUtil zipUtil = new ZipUtil();
+        for (StreamCodec codec : StreamCodec.values()) {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            zipUtil.zip(buildDir.toPath(), CapturePolicy.DEFAULT, codec, os);
+            File dir = rule.newFolder(codec.name());
+            zipUtil.unzip(new ByteArrayInputStream(os.toByteArray()), codec, dir.toPath());
+
+            Assert.assertTrue(codec.name(), BuildManifest.of(buildDir.toPath())
+                .diff(BuildManifest.of(dir.toPath())).isEmpty());
+        }
+    }
+}
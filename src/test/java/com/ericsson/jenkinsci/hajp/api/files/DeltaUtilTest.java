@@ -0,0 +1,102 @@
+package com.ericsson.jenkinsci.hajp.api.files;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+public class DeltaUtilTest {
+
+    @Rule public TemporaryFolder rule = new TemporaryFolder();
+
+    private DeltaUtil deltaUtil = new DeltaUtil();
+    private Random random = new Random(42);
+
+    @Test
+    public void testSyncAppendedLog() throws IOException {
+        byte[] old = randomBytes(4 * 1024 * 1024);
+        byte[] appended = randomBytes(2048);
+        byte[] current = concat(old, appended);
+
+        byte[] delta = assertSync(old, current);
+
+        // compared to the full copy, only the appended bytes and the last partial block are sent
+        Assert.assertTrue("delta of " + delta.length + " bytes",
+            delta.length < appended.length + DeltaUtil.blockSizeFor(old.length) + 4096);
+    }
+
+    @Test
+    public void testSyncModifiedConfig() throws IOException {
+        byte[] old = randomBytes(20 * 1024);
+        byte[] current = Arrays.copyOf(old, old.length);
+        current[10000] ^= 1;
+        byte[] inserted = concat(Arrays.copyOf(current, 5000),
+            concat("<inserted/>".getBytes(), Arrays.copyOfRange(current, 5000, current.length)));
+
+        byte[] delta = assertSync(old, inserted);
+
+        Assert.assertTrue("delta of " + delta.length + " bytes", delta.length < old.length / 4);
+    }
+
+    @Test
+    public void testSyncToMissingFile() throws IOException {
+        assertSync(null, randomBytes(3000));
+    }
+
+    @Test
+    public void testSyncToEmptyFile() throws IOException {
+        assertSync(randomBytes(3000), new byte[0]);
+    }
+
+    @Test
+    public void testSyncTruncatedFile() throws IOException {
+        byte[] old = randomBytes(10000);
+        assertSync(old, Arrays.copyOf(old, 7777));
+    }
+
+    @Test
+    public void testSyncRepeatedBlocks() throws IOException {
+        byte[] block = randomBytes(DeltaUtil.MIN_BLOCK_SIZE);
+        byte[] old = concat(concat(block, randomBytes(DeltaUtil.MIN_BLOCK_SIZE)), block);
+        byte[] delta = assertSync(old, concat(concat(block, block), randomBytes(100)));
+        Assert.assertTrue(delta.length < 2 * DeltaUtil.MIN_BLOCK_SIZE);
+    }
+
+    private byte[] assertSync(byte[] receiverContent, byte[] senderContent) throws IOException {
+        Path receiverFile = new File(rule.getRoot(), "receiver").toPath();
+        if (receiverContent != null) {
+            Files.write(receiverFile, receiverContent);
+        }
+        Path senderFile = rule.newFile("sender").toPath();
+        Files.write(senderFile, senderContent);
+
+        FileSignature signature = deltaUtil.signature(receiverFile);
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        deltaUtil.delta(senderFile, signature, delta);
+        deltaUtil.patch(receiverFile, new ByteArrayInputStream(delta.toByteArray()));
+
+        Assert.assertArrayEquals(senderContent, Files.readAllBytes(receiverFile));
+        return delta.toByteArray();
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private byte[] concat(byte[] first, byte[] second) {
+        byte[] bytes = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, bytes, first.length, second.length);
+        return bytes;
+    }
+}
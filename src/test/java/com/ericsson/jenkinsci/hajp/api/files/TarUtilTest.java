@@ -0,0 +1,154 @@
+package com.ericsson.jenkinsci.hajp.api.files;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.TimeUnit;
+
+public class TarUtilTest {
+
+    @Rule public TemporaryFolder rule = new TemporaryFolder();
+
+    private TarUtil tarUtil = new TarUtil();
+    private Path buildDir;
+
+    @Before
+    public void before() throws IOException {
+        buildDir = rule.newFolder("build").toPath();
+        Files.write(buildDir.resolve("build.xml"), "<build/>".getBytes());
+        Path script = buildDir.resolve("run.sh");
+        Files.write(script, "#!/bin/sh".getBytes());
+        Files.setPosixFilePermissions(script, PosixFilePermissions.fromString("rwxr-x---"));
+        Files.setLastModifiedTime(script, FileTime.fromMillis(1420070400000L));
+        Path reports = Files.createDirectories(buildDir.resolve("junitResult/reports"));
+        Files.write(reports.resolve("result.xml"), "<result/>".getBytes());
+        Files.createSymbolicLink(buildDir.resolve("latest"), Paths.get("junitResult/reports"));
+        Path archive = Files.createDirectories(buildDir.resolve(ZipUtil.ARCHIVE_FILENAME));
+        Files.write(archive.resolve("app.jar"), "jar".getBytes());
+    }
+
+    @Test
+    public void testTarAndUntar() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        tarUtil.tar(buildDir, CapturePolicy.DEFAULT, os);
+        Path destDir = rule.getRoot().toPath().resolve("dest");
+        tarUtil.untar(new ByteArrayInputStream(os.toByteArray()), destDir);
+
+        Assert.assertTrue(BuildManifest.of(buildDir).diff(BuildManifest.of(destDir)).isEmpty());
+        Assert.assertFalse(Files.exists(destDir.resolve(ZipUtil.ARCHIVE_FILENAME)));
+        Path script = destDir.resolve("run.sh");
+        Assert.assertEquals("rwxr-x---",
+            PosixFilePermissions.toString(Files.getPosixFilePermissions(script)));
+        Assert.assertEquals(1420070400000L, Files.getLastModifiedTime(script).toMillis());
+        Assert.assertTrue(Files.isSymbolicLink(destDir.resolve("latest")));
+        Assert.assertEquals(Paths.get("junitResult/reports"),
+            Files.readSymbolicLink(destDir.resolve("latest")));
+        Assert.assertEquals(
+            Files.getLastModifiedTime(buildDir.resolve("junitResult")).to(TimeUnit.SECONDS),
+            Files.getLastModifiedTime(destDir.resolve("junitResult")).to(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testTarWithStreamCodec() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        tarUtil.tar(buildDir, CapturePolicy.METADATA_ONLY, StreamCodec.GZIP, os);
+        Path destDir = rule.getRoot().toPath().resolve("gzip");
+        tarUtil.untar(new ByteArrayInputStream(os.toByteArray()), StreamCodec.GZIP, destDir);
+
+        Assert.assertTrue(Files.isRegularFile(destDir.resolve("build.xml")));
+        Assert.assertEquals(1, new File(destDir.toString()).list().length);
+    }
+
+    @Test(expected = IOException.class)
+    public void testUntarOutsideDestDir() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        TarArchiveOutputStream tos = new TarArchiveOutputStream(os);
+        TarArchiveEntry entry = new TarArchiveEntry("../evil.txt");
+        entry.setSize(4);
+        tos.putArchiveEntry(entry);
+        tos.write("evil".getBytes());
+        tos.closeArchiveEntry();
+        tos.close();
+
+        tarUtil.untar(new ByteArrayInputStream(os.toByteArray()), rule.newFolder("dest").toPath());
+    }
+
+    @Test
+    public void testUntarLinkOutsideDestDir() throws IOException {
+        Path outside = rule.newFolder("outside").toPath();
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        TarArchiveOutputStream tos = new TarArchiveOutputStream(os);
+        TarArchiveEntry link = new TarArchiveEntry("link", TarArchiveEntry.LF_SYMLINK);
+        link.setLinkName(outside.toString());
+        tos.putArchiveEntry(link);
+        tos.closeArchiveEntry();
+        putFile(tos, "link/x", "evil");
+        tos.close();
+
+        Path destDir = rule.newFolder("dest").toPath();
+        try {
+            tarUtil.untar(new ByteArrayInputStream(os.toByteArray()), destDir);
+            Assert.fail("The link outside the destination must be rejected");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().contains("link"));
+        }
+        Assert.assertFalse(Files.exists(destDir.resolve("link"), LinkOption.NOFOLLOW_LINKS));
+        Assert.assertFalse(Files.exists(outside.resolve("x")));
+    }
+
+    @Test(expected = IOException.class)
+    public void testUntarRelativeLinkOutsideDestDir() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        TarArchiveOutputStream tos = new TarArchiveOutputStream(os);
+        TarArchiveEntry link = new TarArchiveEntry("dir/up", TarArchiveEntry.LF_SYMLINK);
+        link.setLinkName("../..");
+        tos.putArchiveEntry(link);
+        tos.closeArchiveEntry();
+        tos.close();
+
+        tarUtil.untar(new ByteArrayInputStream(os.toByteArray()), rule.newFolder("dest").toPath());
+    }
+
+    @Test
+    public void testUntarThroughExistingLink() throws IOException {
+        Path outside = rule.newFolder("outside").toPath();
+        Path destDir = rule.newFolder("dest").toPath();
+        Files.createSymbolicLink(destDir.resolve("link"), outside);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        TarArchiveOutputStream tos = new TarArchiveOutputStream(os);
+        putFile(tos, "link/sub/x", "evil");
+        tos.close();
+
+        try {
+            tarUtil.untar(new ByteArrayInputStream(os.toByteArray()), destDir);
+            Assert.fail("The entry under a link must be rejected");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().contains("symbolic link"));
+        }
+        Assert.assertFalse(Files.exists(outside.resolve("sub")));
+    }
+
+    private static void putFile(TarArchiveOutputStream tos, String name, String content)
+        throws IOException {
+        TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setSize(content.length());
+        tos.putArchiveEntry(entry);
+        tos.write(content.getBytes());
+        tos.closeArchiveEntry();
+    }
+}
@@ -1,13 +1,22 @@
 package com.ericsson.jenkinsci.hajp.api.files;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 public class TestZipUtil {
 
@@ -43,6 +52,118 @@ public class TestZipUtil {
         assertTestFiles(dir);
     }
 
+    @Test
+    public void testZipToStream() throws Exception {
+        File zipFile = rule.newFile("stream.zip");
+        OutputStream os = new FileOutputStream(zipFile);
+        zipUtil.zip(root.toPath(), os);
+        os.close();
+
+        File dir = rule.newFolder("streamDir");
+        zipUtil.unzip(zipFile.toPath(), dir.toPath());
+
+        assertTestFiles(dir);
+    }
+
+    @Test
+    public void testParallelZip() throws Exception {
+        Files.write(new File(root, "dir1/file3.txt").toPath(), new byte[100000]);
+        File zipFile = rule.newFile("parallel.zip");
+        OutputStream os = new FileOutputStream(zipFile);
+        zipUtil.zip(root.toPath(), CapturePolicy.DEFAULT, os, 4);
+        os.close();
+
+        File dir = rule.newFolder("parallelDir");
+        zipUtil.unzip(zipFile.toPath(), dir.toPath());
+
+        assertTestFiles(dir);
+        Assert.assertTrue(BuildManifest.of(root.toPath()).diff(BuildManifest.of(dir.toPath()))
+            .isEmpty());
+        Assert.assertTrue(zipFile.length() < 100000);
+    }
+
+    @Test
+    public void testParallelUnzip() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            Files.write(new File(root, "dir2/report" + i + ".xml").toPath(),
+                ("<report>" + i + "</report>").getBytes());
+        }
+        File zipFile = rule.newFile("reports.zip");
+        OutputStream os = new FileOutputStream(zipFile);
+        zipUtil.zip(root.toPath(), os);
+        os.close();
+
+        File dir = rule.newFolder("reportsDir");
+        zipUtil.unzip(zipFile.toPath(), dir.toPath(), 4);
+
+        assertTestFiles(dir);
+        Assert.assertTrue(BuildManifest.of(root.toPath()).diff(BuildManifest.of(dir.toPath()))
+            .isEmpty());
+    }
+
+    @Test
+    public void testUnzipEntryOutsideDestDir() throws Exception {
+        File zipFile = createZipSlip();
+        File dir = rule.newFolder("slipDir", "dest");
+
+        for (int parallelism : new int[] {1, 4}) {
+            try {
+                zipUtil.unzip(zipFile.toPath(), dir.toPath(), parallelism);
+                Assert.fail("The entry outside the destination must be rejected");
+            } catch (IOException e) {
+                Assert.assertTrue(e.getMessage().contains("../evil.txt"));
+            }
+            Assert.assertFalse(new File(dir.getParentFile(), "evil.txt").exists());
+        }
+    }
+
+    @Test
+    public void testUnzipEntryWithLeadingSlash() throws Exception {
+        File zipFile = rule.newFile("legacy.zip");
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zipFile));
+        zos.putNextEntry(new ZipEntry("/dir/file.txt"));
+        zos.write("legacy".getBytes());
+        zos.close();
+
+        File dir = rule.newFolder("legacyDir");
+        zipUtil.unzip(zipFile.toPath(), dir.toPath(), 4);
+
+        Assert.assertEquals("legacy",
+            new String(Files.readAllBytes(new File(dir, "dir/file.txt").toPath())));
+    }
+
+    private File createZipSlip() throws IOException {
+        File zipFile = rule.newFile("slip.zip");
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zipFile));
+        zos.putNextEntry(new ZipEntry("file.txt"));
+        zos.write("inside".getBytes());
+        zos.putNextEntry(new ZipEntry("../evil.txt"));
+        zos.write("outside".getBytes());
+        zos.close();
+        return zipFile;
+    }
+
+    @Test
+    public void testZipDeterministic() throws Exception {
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        zipUtil.zipDeterministic(root.toPath(), CapturePolicy.DEFAULT, first);
+        File copy = rule.newFolder("copy");
+        FileUtils.copyDirectory(root, copy, false);
+        new File(copy, "dir1/file3.txt").setLastModified(0);
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        zipUtil.zipDeterministic(copy.toPath(), CapturePolicy.DEFAULT, second);
+
+        Assert.assertArrayEquals(first.toByteArray(), second.toByteArray());
+
+        File dir = rule.newFolder("deterministicDir");
+        zipUtil.unzip(new ByteArrayInputStream(first.toByteArray()), dir.toPath());
+        assertTestFiles(dir);
+        Files.write(new File(copy, "file1.txt").toPath(), "changed".getBytes());
+        ByteArrayOutputStream third = new ByteArrayOutputStream();
+        zipUtil.zipDeterministic(copy.toPath(), CapturePolicy.DEFAULT, third);
+        Assert.assertFalse(Arrays.equals(first.toByteArray(), third.toByteArray()));
+    }
+
     private void createTestFiles() throws IOException {
         File file1 = new File(root, "file1.txt");
         file1.createNewFile();
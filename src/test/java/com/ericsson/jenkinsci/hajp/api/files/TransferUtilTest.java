@@ -0,0 +1,120 @@
+package com.ericsson.jenkinsci.hajp.api.files;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+public class TransferUtilTest {
+
+    @Rule public TemporaryFolder rule = new TemporaryFolder();
+
+    private byte[] content;
+    private Path file;
+
+    @Before public void setUp() throws IOException {
+        content = new byte[3 * BufferPool.DEFAULT_BUFFER_SIZE + 17];
+        new Random(42).nextBytes(content);
+        file = rule.newFile("content.bin").toPath();
+        Files.write(file, content);
+    }
+
+    @Test public void testCopyFileToStream() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+        Assert.assertEquals(content.length, TransferUtil.copy(file, os));
+
+        Assert.assertArrayEquals(content, os.toByteArray());
+    }
+
+    @Test public void testCopyFileToFileStream() throws IOException {
+        Path dest = rule.newFile("dest.bin").toPath();
+        FileOutputStream os = new FileOutputStream(dest.toFile());
+        try {
+            os.write(1);
+            TransferUtil.copy(file, os);
+            os.write(2);
+        } finally {
+            os.close();
+        }
+
+        byte[] copied = Files.readAllBytes(dest);
+        Assert.assertEquals(content.length + 2, copied.length);
+        Assert.assertEquals(1, copied[0]);
+        Assert.assertEquals(2, copied[copied.length - 1]);
+    }
+
+    @Test public void testCopyFileToChannel() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+        TransferUtil.copy(file, Channels.newChannel(os));
+
+        Assert.assertArrayEquals(content, os.toByteArray());
+    }
+
+    @Test(timeout = 10000, expected = IOException.class)
+    public void testCopyFileToStalledChannel() throws IOException {
+        // like a non-blocking socket whose send buffer is full
+        TransferUtil.copy(file, new WritableByteChannel() {
+            @Override public int write(ByteBuffer src) {
+                return 0;
+            }
+
+            @Override public boolean isOpen() {
+                return true;
+            }
+
+            @Override public void close() {
+            }
+        });
+    }
+
+    @Test public void testCopyStreamToFile() throws IOException {
+        Path dest = rule.getRoot().toPath().resolve("dest.bin");
+
+        TransferUtil.copy(new ByteArrayInputStream(content), dest);
+
+        Assert.assertArrayEquals(content, Files.readAllBytes(dest));
+    }
+
+    @Test public void testCopyFileStreamToFile() throws IOException {
+        Path dest = rule.getRoot().toPath().resolve("dest.bin");
+        FileInputStream is = new FileInputStream(file.toFile());
+        try {
+            Assert.assertEquals(10, is.skip(10));
+            Assert.assertEquals(content.length - 10, TransferUtil.copy(is, dest));
+            Assert.assertEquals(-1, is.read());
+        } finally {
+            is.close();
+        }
+
+        Assert.assertEquals(content.length - 10, Files.size(dest));
+    }
+
+    @Test public void testBuffersReused() {
+        BufferPool pool = new BufferPool(16, 1);
+
+        byte[] first = pool.acquire();
+        byte[] second = pool.acquire();
+        pool.release(first);
+        pool.release(second);
+
+        Assert.assertEquals(1, pool.getPooled());
+        Assert.assertSame(first, pool.acquire());
+        Assert.assertEquals(0, pool.getPooled());
+        Assert.assertNotSame(second, pool.acquire());
+    }
+}
@@ -126,4 +126,18 @@ public class XmlUtilTest {
         String urlValue2 = urlNode.item(1).getFirstChild().getNodeValue();
         Assert.assertEquals("https://www.origin.com/2/", urlValue2);
     }
+
+    @Test public void testSetRootChildElement() throws Exception {
+        String xml = "<build><number>1</number>"
+            + "<artifactManager class=\"jenkins.model.StandardArtifactManager\"/></build>";
+
+        Document doc = XmlUtil.xmlToDocument(
+            XmlUtil.setRootChildElement(xml, "artifactManager", "my.ArtifactManager"));
+
+        NodeList managers = XmlUtil.findNodeByXpath(doc, "/build/artifactManager");
+        Assert.assertEquals(1, managers.getLength());
+        Assert.assertEquals("my.ArtifactManager",
+            managers.item(0).getAttributes().getNamedItem("class").getNodeValue());
+        Assert.assertEquals(1, XmlUtil.findNodeByXpath(doc, "/build/number").getLength());
+    }
 }